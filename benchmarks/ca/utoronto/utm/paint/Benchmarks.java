@@ -0,0 +1,32 @@
+package ca.utoronto.utm.paint;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler, so each result comes with its
+ * allocation rate and bytes allocated per operation as well as its time.
+ * Any JMH command line options, a benchmark name pattern for instance,
+ * may be given as arguments.
+ *
+ * Usage: java ca.utoronto.utm.paint.Benchmarks [jmh options]
+ *
+ * @author
+ *
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		if (options.getIncludes().isEmpty()) {
+			builder.include(Benchmarks.class.getPackage().getName() + "\\..*Benchmark");
+		}
+		builder.parent(options).addProfiler(GCProfiler.class);
+		new Runner(builder.build()).run();
+	}
+}
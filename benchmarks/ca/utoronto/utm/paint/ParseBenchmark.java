@@ -0,0 +1,78 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Parse synthetic save files, in both formats, into a new PaintModel.
+ *
+ * @author
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+	@Param({ "1000", "100000" })
+	int shapes;
+
+	@Param({ "circles", "rectangles", "strokes", "mixed" })
+	String mix;
+
+	private Path text, binary;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.text = SyntheticDrawing.file(this.shapes, this.mix, 1, false);
+		this.binary = SyntheticDrawing.file(this.shapes, this.mix, 1, true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(this.text);
+		Files.deleteIfExists(this.binary);
+	}
+
+	@Benchmark
+	public PaintModel parseText() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		PaintFileParser parser = new PaintFileParser();
+		if (!parser.parse(this.text, paintModel)) {
+			throw new IllegalStateException(parser.getErrorMessage());
+		}
+		return paintModel;
+	}
+
+	@Benchmark
+	public PaintModel parseBinary() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		PaintBinaryFileParser parser = new PaintBinaryFileParser();
+		if (!parser.parse(this.binary, paintModel)) {
+			throw new IllegalStateException(parser.getErrorMessage());
+		}
+		return paintModel;
+	}
+
+	@Benchmark
+	public PaintModel parseTextColumnar() throws IOException {
+		PaintModel paintModel = new ColumnarPaintModel();
+		PaintFileParser parser = new PaintFileParser();
+		if (!parser.parse(this.text, paintModel)) {
+			throw new IllegalStateException(parser.getErrorMessage());
+		}
+		return paintModel;
+	}
+}
@@ -0,0 +1,77 @@
+package ca.utoronto.utm.paint;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Draw a synthetic drawing.
+ *
+ * GraphicsContext can not be subclassed, so executeAll draws on the context
+ * of a Canvas that is never shown. Such a context only records the calls
+ * made on it into a buffer, which is drained on the next pulse; clearing
+ * the whole canvas before each drawing empties the buffer, so what is
+ * measured is the cost of issuing the calls, not of rasterizing them.
+ * SoftwareRenderer, which does rasterize, is measured separately.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RenderBenchmark {
+	static final int VIEW_SIZE = 500; // of the region drawn by executeRegion, as the canvas in PaintPanel
+
+	@Param({ "1000", "100000" })
+	int shapes;
+
+	@Param({ "circles", "rectangles", "strokes", "mixed" })
+	String mix;
+
+	private PaintModel paintModel;
+	private GraphicsContext g;
+	private SoftwareRenderer renderer = new SoftwareRenderer();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		try {
+			Platform.startup(() -> {});
+		} catch (IllegalStateException e) {
+			// already started by an earlier trial in this JVM
+		}
+		this.paintModel = SyntheticDrawing.model(this.shapes, this.mix, 1);
+		this.g = new Canvas(SyntheticDrawing.WIDTH, SyntheticDrawing.HEIGHT).getGraphicsContext2D();
+	}
+
+	@Benchmark
+	public GraphicsContext executeAll() {
+		this.g.clearRect(0, 0, SyntheticDrawing.WIDTH, SyntheticDrawing.HEIGHT);
+		this.paintModel.executeAll(this.g);
+		return this.g;
+	}
+
+	@Benchmark
+	public GraphicsContext executeRegion() {
+		this.g.clearRect(0, 0, SyntheticDrawing.WIDTH, SyntheticDrawing.HEIGHT);
+		this.paintModel.executeAll(this.g, new Rect(0, 0, VIEW_SIZE - 1, VIEW_SIZE - 1));
+		return this.g;
+	}
+
+	@Benchmark
+	public int[] softwareRender() {
+		return this.renderer.render(this.paintModel, VIEW_SIZE, VIEW_SIZE);
+	}
+}
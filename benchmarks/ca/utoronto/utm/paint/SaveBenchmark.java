@@ -0,0 +1,61 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Save a synthetic drawing, in both formats, to a writer that discards
+ * what it is given, so only the cost of producing the bytes is measured.
+ *
+ * @author
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaveBenchmark {
+	@Param({ "1000", "100000" })
+	int shapes;
+
+	@Param({ "circles", "rectangles", "strokes", "mixed" })
+	String mix;
+
+	private PaintModel paintModel, columnarModel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.paintModel = SyntheticDrawing.model(this.shapes, this.mix, 1);
+		this.columnarModel = new ColumnarPaintModel();
+		for (PaintCommand c : this.paintModel.commands()) {
+			this.columnarModel.addCommand(c);
+		}
+	}
+
+	@Benchmark
+	public void saveText() {
+		this.paintModel.save(new PrintWriter(Writer.nullWriter()));
+	}
+
+	@Benchmark
+	public void saveBinary() throws IOException {
+		this.paintModel.saveBinary(OutputStream.nullOutputStream());
+	}
+
+	@Benchmark
+	public void saveTextColumnar() {
+		this.columnarModel.save(new PrintWriter(Writer.nullWriter()));
+	}
+}
@@ -0,0 +1,97 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Find the shapes in a region, and under a point, of a synthetic drawing of
+ * circles: through the SpatialIndex of the model, as getCommandsIn and
+ * getCommandsAt do, and by checking the bounds of every command in turn, as
+ * they did before there was an index. The regions and points are spread
+ * over the drawing, a different one for each call.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpatialIndexBenchmark {
+	static final int REGION_SIZE = 64; // of the regions queried, about what a small edit damages
+	static final int QUERIES = 1024; // different regions and points, used in turn
+
+	@Param({ "10000", "100000", "1000000" })
+	int shapes;
+
+	private PaintModel paintModel;
+	private PaintCommand[] commands;
+	private Rect[] regions = new Rect[QUERIES];
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.paintModel = SyntheticDrawing.model(this.shapes, "circles", 1);
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>(this.shapes);
+		for (PaintCommand c : this.paintModel.commands()) {
+			commands.add(c);
+		}
+		this.commands = commands.toArray(new PaintCommand[0]);
+		Random random = new Random(2);
+		for (int i = 0; i < QUERIES; i++) {
+			int x = random.nextInt(SyntheticDrawing.WIDTH - REGION_SIZE), y = random.nextInt(SyntheticDrawing.HEIGHT - REGION_SIZE);
+			this.regions[i] = new Rect(x, y, x + REGION_SIZE - 1, y + REGION_SIZE - 1);
+		}
+	}
+
+	private Rect nextRegion() {
+		this.next = (this.next + 1) % QUERIES;
+		return this.regions[this.next];
+	}
+
+	@Benchmark
+	public List<PaintCommand> regionIndexed() {
+		return this.paintModel.getCommandsIn(this.nextRegion());
+	}
+
+	@Benchmark
+	public List<PaintCommand> regionLinear() {
+		return this.scan(this.nextRegion());
+	}
+
+	@Benchmark
+	public List<PaintCommand> pointIndexed() {
+		Rect region = this.nextRegion();
+		return this.paintModel.getCommandsAt(region.minX, region.minY);
+	}
+
+	@Benchmark
+	public List<PaintCommand> pointLinear() {
+		Rect region = this.nextRegion();
+		return this.scan(new Rect(region.minX, region.minY, region.minX, region.minY));
+	}
+
+	/**
+	 * @return the commands whose bounds intersect region, in drawing order, found without the index
+	 */
+	private List<PaintCommand> scan(Rect region) {
+		ArrayList<PaintCommand> found = new ArrayList<PaintCommand>();
+		for (PaintCommand c : this.commands) {
+			if (c.getBounds().intersects(region)) {
+				found.add(c);
+			}
+		}
+		return found;
+	}
+}
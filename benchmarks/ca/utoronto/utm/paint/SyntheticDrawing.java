@@ -0,0 +1,112 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Made up drawings for the benchmarks, the same for the same arguments.
+ *
+ * The mix says which shapes to draw:
+ *   circles     circles only
+ *   rectangles  rectangles only
+ *   strokes     squiggles and polylines of 20 to 200 points
+ *   mixed       a quarter of each
+ *
+ * @author
+ *
+ */
+class SyntheticDrawing {
+	static final int WIDTH = 2000, HEIGHT = 2000; // shapes are placed in (0,0)-(WIDTH,HEIGHT)
+
+	/**
+	 * @return a model holding shapes shapes of the given mix
+	 */
+	static PaintModel model(int shapes, String mix, long seed) {
+		Random random = new Random(seed);
+		PaintModel paintModel = new PaintModel();
+		paintModel.beginUpdate();
+		for (int i = 0; i < shapes; i++) {
+			paintModel.addCommand(shape(random, kind(mix, i)));
+		}
+		paintModel.endUpdate();
+		return paintModel;
+	}
+
+	/**
+	 * Write the drawing made by model(shapes, mix, seed) to a temporary file.
+	 * @param binary whether to use the binary format, otherwise the text format
+	 * @return the file, deleted when the JVM exits
+	 */
+	static Path file(int shapes, String mix, long seed, boolean binary) throws IOException {
+		PaintModel paintModel = model(shapes, mix, seed);
+		Path path = Files.createTempFile("synthetic-" + mix + "-" + shapes, binary ? PaintBinaryFileParser.EXTENSION : ".txt");
+		path.toFile().deleteOnExit();
+		if (binary) {
+			paintModel.saveBinary(Files.newOutputStream(path));
+		} else {
+			paintModel.save(new PrintWriter(Files.newBufferedWriter(path)));
+		}
+		return path;
+	}
+
+	/**
+	 * @return the type of shape i, one of the PaintBinaryFileParser tags
+	 */
+	private static int kind(String mix, int i) {
+		switch (mix) {
+		case "circles":
+			return PaintBinaryFileParser.CIRCLE;
+		case "rectangles":
+			return PaintBinaryFileParser.RECTANGLE;
+		case "strokes":
+			return i % 2 == 0 ? PaintBinaryFileParser.SQUIGGLE : PaintBinaryFileParser.POLYLINE;
+		case "mixed":
+			return PaintBinaryFileParser.CIRCLE + i % 4;
+		default:
+			throw new IllegalArgumentException("Unknown shape mix " + mix);
+		}
+	}
+
+	private static PaintCommand shape(Random random, int kind) {
+		int x = random.nextInt(WIDTH), y = random.nextInt(HEIGHT);
+		PaintCommand command;
+		switch (kind) {
+		case PaintBinaryFileParser.CIRCLE:
+			command = new CircleCommand(new Point(x, y), 1 + random.nextInt(50));
+			break;
+		case PaintBinaryFileParser.RECTANGLE:
+			command = new RectangleCommand(new Point(x, y), new Point(x + random.nextInt(100), y + random.nextInt(100)));
+			break;
+		case PaintBinaryFileParser.SQUIGGLE:
+			SquiggleCommand squiggleCommand = new SquiggleCommand();
+			walk(random, x, y, squiggleCommand.getPointBuffer());
+			command = squiggleCommand;
+			break;
+		default:
+			PolyLineCommand polylineCommand = new PolyLineCommand();
+			walk(random, x, y, polylineCommand.getPointBuffer());
+			command = polylineCommand;
+			break;
+		}
+		command.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+		command.setFill(random.nextBoolean());
+		return command;
+	}
+
+	/**
+	 * Add a random walk from (x,y) to points, as a mouse drag would make.
+	 */
+	private static void walk(Random random, int x, int y, PointBuffer points) {
+		int n = 20 + random.nextInt(181);
+		for (int i = 0; i < n; i++) {
+			points.add(x, y);
+			x = Math.max(0, Math.min(WIDTH, x + random.nextInt(7) - 3)); // the text format has no negative coordinates
+			y = Math.max(0, Math.min(HEIGHT, y + random.nextInt(7) - 3));
+		}
+	}
+}
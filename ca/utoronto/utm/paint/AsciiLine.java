@@ -0,0 +1,99 @@
+package ca.utoronto.utm.paint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A line of a save file, viewed directly in the bytes of a buffer. The save
+ * file format is plain ASCII, so each byte is one character. The same instance
+ * is moved from line to line, so walking a buffer does not create a String
+ * for each line.
+ *
+ * Lines end with \n, \r or \r\n, just as for BufferedReader.readLine.
+ *
+ * @author
+ *
+ */
+class AsciiLine implements CharSequence {
+	private ByteBuffer buffer;
+	private int start, end; // the line is buffer[start,end)
+
+	AsciiLine(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * View buffer[start,end) as the current line.
+	 */
+	void set(int start, int end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public int length() {
+		return this.end - this.start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (this.buffer.get(this.start + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		AsciiLine line = new AsciiLine(this.buffer);
+		line.set(this.start + start, this.start + end);
+		return line;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder(this.length());
+		for (int i = 0; i < this.length(); i++) {
+			s.append(this.charAt(i));
+		}
+		return s.toString();
+	}
+
+	/**
+	 * @return the index of the line terminator of the line starting at pos, or to if there is none
+	 */
+	static int lineEnd(ByteBuffer buffer, int pos, int to) {
+		while (pos < to) {
+			byte b = buffer.get(pos);
+			if (b == '\n' || b == '\r') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @param eol the index of a line terminator, as returned by lineEnd
+	 * @return the index of the start of the following line
+	 */
+	static int nextLine(ByteBuffer buffer, int eol, int to) {
+		if (eol + 1 < to && buffer.get(eol) == '\r' && buffer.get(eol + 1) == '\n') {
+			return eol + 2;
+		}
+		return Math.min(eol + 1, to);
+	}
+
+	/**
+	 * @return the start of the first line beginning at or after pos
+	 */
+	static int lineStart(ByteBuffer buffer, int pos, int to) {
+		if (pos <= 0) {
+			return 0;
+		}
+		if (pos >= to) {
+			return to;
+		}
+		byte before = buffer.get(pos - 1);
+		if (before == '\n' || (before == '\r' && buffer.get(pos) != '\n')) {
+			return pos;
+		}
+		return nextLine(buffer, lineEnd(buffer, pos, to), to);
+	}
+}
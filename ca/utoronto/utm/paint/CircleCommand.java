@@ -1,4 +1,6 @@
 package ca.utoronto.utm.paint;
+import java.io.IOException;
+
 import javafx.scene.canvas.GraphicsContext;
 
 public class CircleCommand extends PaintCommand {
@@ -11,30 +13,37 @@ public class CircleCommand extends PaintCommand {
 	}
 	public Point getCentre() { return centre; }
 	public void setCentre(Point centre) { 
+		Rect before = this.getBounds();
 		this.centre = centre; 
-		this.setChanged();
-		this.notifyObservers();
+		this.changed(before.union(this.getBounds()));
 	}
 	public int getRadius() { return radius; }
 	public void setRadius(int radius) { 
+		Rect before = this.getBounds();
 		this.radius = radius; 
-		this.setChanged();
-		this.notifyObservers();
+		this.changed(before.union(this.getBounds()));
 	}
 	@Override
-	public String report() {
-		int r = (int)(this.getColor().getRed() * 255);
-		int g = (int)(this.getColor().getGreen() * 255);
-		int b = (int)(this.getColor().getBlue() * 255);
-
-		String s = "";
-		s+="Circle\n";
-		s+="\tcolor:"+r+","+g+","+b+"\n";
-		s+="\tfilled:"+this.isFill()+"\n";
-		s+="\tcenter:(" + this.getCentre().x + "," + this.getCentre().y + ")\n";
-		s+="\tradius:" + this.getRadius() + "\n";
-		s+="EndCircle\n";
-		return s;
+	String getShapeName() {
+		return "Circle";
+	}
+	@Override
+	Rect getBounds() {
+		return new Rect(centre.x-radius, centre.y-radius, centre.x+radius, centre.y+radius);
+	}
+	@Override
+	void write(PaintFileWriter writer) throws IOException {
+		writer.writeShape("Circle", this.getColor(), this.isFill());
+		writer.append("\tcenter:").appendPoint(this.getCentre().x, this.getCentre().y).append('\n');
+		writer.append("\tradius:").append(this.getRadius()).append('\n');
+		writer.append("EndCircle\n");
+	}
+	@Override
+	void write(PaintBinaryWriter writer) throws IOException {
+		writer.writeShape(PaintBinaryFileParser.CIRCLE, this.getColor(), this.isFill());
+		writer.writeInt(this.getCentre().x);
+		writer.writeInt(this.getCentre().y);
+		writer.writeInt(this.getRadius());
 	}
 	public void execute(GraphicsContext g){
 		int x = this.getCentre().x;
@@ -48,4 +57,17 @@ public class CircleCommand extends PaintCommand {
 			g.strokeOval(x-radius, y-radius, 2*radius, 2*radius);
 		}
 	}
+	@Override
+	void execute(Raster r){
+		int x = this.getCentre().x;
+		int y = this.getCentre().y;
+		int radius = this.getRadius();
+		if(this.isFill()){
+			r.setFill(this.getArgb());
+			r.fillOval(x-radius, y-radius, 2*radius, 2*radius);
+		} else {
+			r.setStroke(this.getArgb());
+			r.strokeOval(x-radius, y-radius, 2*radius, 2*radius);
+		}
+	}
 }
@@ -0,0 +1,659 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ca.utoronto.utm.paint.PaintModelListener.Change;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * A PaintModel that keeps its shapes in parallel arrays of primitives instead
+ * of as PaintCommand objects: a type, a packed color and fill flag, bounds,
+ * and an offset into one shared array of coordinates for each shape. A shape
+ * costs a few bytes plus its coordinates, so very large drawings fit in
+ * memory, and drawing or saving them walks a handful of arrays in order.
+ * The bounds are worked out as each shape is added, and entered in a grid
+ * of cells, as SpatialIndex does, so a region is drawn or searched by
+ * looking only at the shapes near it.
+ *
+ * The coordinates of each type of shape are
+ *   Circle     x, y, radius
+ *   Rectangle  x1, y1, x2, y2
+ *   Squiggle   x, y for each point
+ *   Polyline   as Squiggle
+ *
+ * Commands added to this are copied into the arrays and then not referred to,
+ * so later changes to those command objects are not seen. The commands handed
+ * out, by getTopCommand, getCommandsIn and so on, are views onto the arrays.
+ * The view of a shape is made the first time it is asked for and then kept,
+ * so the same shape is always the same command. Saving goes through one
+ * view for all of the shapes instead, see commandsToWrite.
+ *
+ * This suits drawings that are loaded, converted or rendered in bulk, rather
+ * than ones being edited shape by shape.
+ *
+ * @author
+ *
+ */
+public class ColumnarPaintModel extends PaintModel {
+	private static final int REMOVED = 0; // the type of a removed shape
+	private static final int FILLED = 1 << 24; // set in colors, above the rgb, for filled shapes
+
+	private byte[] types = new byte[16]; // shape types, as in PaintBinaryFileParser
+	private int[] colors = new int[16]; // 0xrrggbb, or'd with FILLED
+	private int[] starts = new int[17]; // the coordinates of shape i are coordinates[starts[i],starts[i+1])
+	private int[] coordinates = new int[64];
+	private int[] minXs = new int[16], minYs = new int[16], maxXs = new int[16], maxYs = new int[16]; // bounds, maxX < minX if empty
+	private ShapeView[] views = new ShapeView[16]; // of the shapes that have been asked for
+	private int size = 0; // shapes, including removed ones
+
+	// The shapes with bounds in each cell, see SpatialIndex, and those covering too many cells to enter
+	private HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+	private Cell large = new Cell();
+
+	/**
+	 * The indices of shapes, in the order they were entered.
+	 */
+	private static class Cell {
+		int[] shapes = new int[4];
+		int size = 0;
+
+		void add(int shape) {
+			if (this.size == this.shapes.length) {
+				this.shapes = Arrays.copyOf(this.shapes, 2 * this.size);
+			}
+			this.shapes[this.size++] = shape;
+		}
+	}
+
+	/**
+	 * @return the number of shapes in this
+	 */
+	public int getShapeCount() {
+		int count = 0;
+		for (int i = 0; i < this.size; i++) {
+			if (this.types[i] != REMOVED) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of points in the squiggles and polylines of this
+	 */
+	public long getPointCount() {
+		long count = 0;
+		for (int i = 0; i < this.size; i++) {
+			if (this.types[i] == PaintBinaryFileParser.SQUIGGLE || this.types[i] == PaintBinaryFileParser.POLYLINE) {
+				count += (this.starts[i + 1] - this.starts[i]) / 2;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void reset() {
+		this.types = new byte[16];
+		this.colors = new int[16];
+		this.starts = new int[17];
+		this.coordinates = new int[64];
+		this.minXs = new int[16];
+		this.minYs = new int[16];
+		this.maxXs = new int[16];
+		this.maxYs = new int[16];
+		this.views = new ShapeView[16];
+		this.size = 0;
+		this.cells.clear();
+		this.large = new Cell();
+		this.changed(Change.RESET, null, null);
+	}
+
+	@Override
+	public void addCommand(PaintCommand command) {
+		if (command instanceof ShapeView) {
+			ShapeView view = (ShapeView) command;
+			ColumnarPaintModel from = view.getModel();
+			int start = from.starts[view.index], end = from.starts[view.index + 1];
+			this.begin(from.types[view.index], command);
+			for (int i = start; i < end; i++) {
+				this.push(from.coordinates[i]);
+			}
+		} else if (command instanceof CircleCommand) {
+			CircleCommand circle = (CircleCommand) command;
+			this.begin(PaintBinaryFileParser.CIRCLE, command);
+			this.push(circle.getCentre().x);
+			this.push(circle.getCentre().y);
+			this.push(circle.getRadius());
+		} else if (command instanceof RectangleCommand) {
+			RectangleCommand rectangle = (RectangleCommand) command;
+			this.begin(PaintBinaryFileParser.RECTANGLE, command);
+			this.push(rectangle.getP1().x);
+			this.push(rectangle.getP1().y);
+			this.push(rectangle.getP2().x);
+			this.push(rectangle.getP2().y);
+		} else if (command instanceof SquiggleCommand) {
+			this.begin(PaintBinaryFileParser.SQUIGGLE, command);
+			this.push(((SquiggleCommand) command).getPointBuffer());
+		} else if (command instanceof PolyLineCommand) {
+			this.begin(PaintBinaryFileParser.POLYLINE, command);
+			this.push(((PolyLineCommand) command).getPointBuffer());
+		} else {
+			throw new IllegalArgumentException("Unknown command " + command.getClass().getName());
+		}
+		this.measure(this.size);
+		this.enter(this.size);
+		this.size++;
+		this.changed(Change.BATCH, this.bounds(this.size - 1), null); // its shapes are views made on demand, there is no command to name
+	}
+
+	/**
+	 * Work out the bounds of shape i, from its coordinates.
+	 */
+	private void measure(int i) {
+		int[] c = this.coordinates;
+		int s = this.starts[i], end = this.starts[i + 1];
+		int minX = 0, minY = 0, maxX = -1, maxY = -1;
+		switch (this.types[i]) {
+		case PaintBinaryFileParser.CIRCLE:
+			minX = c[s] - c[s + 2];
+			minY = c[s + 1] - c[s + 2];
+			maxX = c[s] + c[s + 2];
+			maxY = c[s + 1] + c[s + 2];
+			break;
+		case PaintBinaryFileParser.RECTANGLE:
+			minX = Math.min(c[s], c[s + 2]);
+			minY = Math.min(c[s + 1], c[s + 3]);
+			maxX = Math.max(c[s], c[s + 2]);
+			maxY = Math.max(c[s + 1], c[s + 3]);
+			break;
+		case PaintBinaryFileParser.SQUIGGLE:
+		case PaintBinaryFileParser.POLYLINE:
+			if (s == end) break;
+			minX = maxX = c[s];
+			minY = maxY = c[s + 1];
+			for (int j = s + 2; j < end; j += 2) {
+				minX = Math.min(minX, c[j]);
+				maxX = Math.max(maxX, c[j]);
+				minY = Math.min(minY, c[j + 1]);
+				maxY = Math.max(maxY, c[j + 1]);
+			}
+			break;
+		}
+		this.minXs[i] = minX;
+		this.minYs[i] = minY;
+		this.maxXs[i] = maxX;
+		this.maxYs[i] = maxY;
+	}
+
+	/**
+	 * Enter shape i in the cells its bounds cover.
+	 */
+	private void enter(int i) {
+		if (this.maxXs[i] < this.minXs[i]) return; // an empty stroke is nowhere
+		int cx1 = SpatialIndex.cell(this.minXs[i]), cy1 = SpatialIndex.cell(this.minYs[i]);
+		int cx2 = SpatialIndex.cell(this.maxXs[i]), cy2 = SpatialIndex.cell(this.maxYs[i]);
+		if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > SpatialIndex.MAX_CELLS) {
+			this.large.add(i);
+			return;
+		}
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				this.cells.computeIfAbsent(SpatialIndex.key(cx, cy), k -> new Cell()).add(i);
+			}
+		}
+	}
+
+	/**
+	 * Start the next shape, making room for it in each of the arrays.
+	 */
+	private void begin(int type, PaintCommand command) {
+		if (this.size == this.types.length) {
+			int capacity = this.size + (this.size >> 1);
+			this.types = Arrays.copyOf(this.types, capacity);
+			this.colors = Arrays.copyOf(this.colors, capacity);
+			this.starts = Arrays.copyOf(this.starts, capacity + 1);
+			this.minXs = Arrays.copyOf(this.minXs, capacity);
+			this.minYs = Arrays.copyOf(this.minYs, capacity);
+			this.maxXs = Arrays.copyOf(this.maxXs, capacity);
+			this.maxYs = Arrays.copyOf(this.maxYs, capacity);
+			this.views = Arrays.copyOf(this.views, capacity);
+		}
+		this.types[this.size] = (byte) type;
+		this.colors[this.size] = pack(command.getColor(), command.isFill());
+		this.starts[this.size + 1] = this.starts[this.size];
+	}
+
+	/**
+	 * Append a coordinate to the shape being added.
+	 */
+	private void push(int coordinate) {
+		int end = this.starts[this.size + 1];
+		if (end == this.coordinates.length) {
+			this.coordinates = Arrays.copyOf(this.coordinates, end + (end >> 1));
+		}
+		this.coordinates[end] = coordinate;
+		this.starts[this.size + 1] = end + 1;
+	}
+
+	private void push(PointBuffer points) {
+		for (int i = 0; i < points.size(); i++) {
+			this.push(points.getX(i));
+			this.push(points.getY(i));
+		}
+	}
+
+	/**
+	 * The space held by a removed shape is not reclaimed until reset, and it
+	 * stays in the cells, where it is skipped.
+	 */
+	@Override
+	public void removeCommand(PaintCommand command) {
+		if (command instanceof ShapeView && ((ShapeView) command).getModel() == this) {
+			int i = ((ShapeView) command).index;
+			if (this.types[i] != REMOVED) {
+				Rect damage = this.bounds(i);
+				this.types[i] = REMOVED;
+				this.changed(Change.BATCH, damage, null);
+			}
+		}
+	}
+
+	@Override
+	PaintCommand getTopCommand() {
+		for (int i = this.size - 1; i >= 0; i--) {
+			if (this.types[i] != REMOVED) {
+				return this.view(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the view of shape i, the same one each time
+	 */
+	private ShapeView view(int i) {
+		if (this.views[i] == null) {
+			this.views[i] = new ShapeView(i);
+		}
+		return this.views[i];
+	}
+
+	@Override
+	Iterable<PaintCommand> commands() {
+		return () -> new Iterator<PaintCommand>() {
+			private int next = this.skipRemoved(0);
+
+			private int skipRemoved(int i) {
+				while (i < ColumnarPaintModel.this.size && ColumnarPaintModel.this.types[i] == REMOVED) {
+					i++;
+				}
+				return i;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.next < ColumnarPaintModel.this.size;
+			}
+
+			@Override
+			public PaintCommand next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				PaintCommand view = ColumnarPaintModel.this.view(this.next);
+				this.next = this.skipRemoved(this.next + 1);
+				return view;
+			}
+		};
+	}
+
+	/**
+	 * The same view is handed out for each shape in turn, rather than the
+	 * view of each shape, so saving a drawing does not make a view for
+	 * every shape in it.
+	 */
+	@Override
+	Iterable<PaintCommand> commandsToWrite() {
+		return () -> new Iterator<PaintCommand>() {
+			private ShapeView view = new ShapeView(-1);
+			private int next = this.skipRemoved(0);
+
+			private int skipRemoved(int i) {
+				while (i < ColumnarPaintModel.this.size && ColumnarPaintModel.this.types[i] == REMOVED) {
+					i++;
+				}
+				return i;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.next < ColumnarPaintModel.this.size;
+			}
+
+			@Override
+			public PaintCommand next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				this.view.index = this.next;
+				this.next = this.skipRemoved(this.next + 1);
+				return this.view;
+			}
+		};
+	}
+
+	@Override
+	public void executeAll(GraphicsContext g) {
+		for (int i = 0; i < this.size; i++) {
+			this.execute(g, i);
+		}
+	}
+
+	@Override
+	public void executeAll(GraphicsContext g, Rect region) {
+		for (int i : this.find(region.grow(PaintCommand.STROKE_MARGIN))) {
+			this.execute(g, i);
+		}
+	}
+
+	@Override
+	public List<PaintCommand> getCommandsAt(int x, int y) {
+		return this.getCommandsIn(new Rect(x, y, x, y));
+	}
+
+	@Override
+	public List<PaintCommand> getCommandsIn(Rect region) {
+		int[] shapes = this.find(region);
+		ArrayList<PaintCommand> found = new ArrayList<PaintCommand>(shapes.length);
+		for (int i : shapes) {
+			found.add(this.view(i));
+		}
+		return found;
+	}
+
+	/**
+	 * @return the indices of the shapes whose bounds intersect region, in
+	 * drawing order
+	 */
+	private int[] find(Rect region) {
+		if (region.isEmpty()) {
+			return new int[0];
+		}
+		int cx1 = SpatialIndex.cell(region.minX), cy1 = SpatialIndex.cell(region.minY);
+		int cx2 = SpatialIndex.cell(region.maxX), cy2 = SpatialIndex.cell(region.maxY);
+		Cell found = new Cell();
+		if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > this.cells.size()) {
+			// The region covers more cells than are in use, visit those instead
+			for (Cell cell : this.cells.values()) {
+				this.collect(cell, region, found);
+			}
+		} else {
+			for (int cx = cx1; cx <= cx2; cx++) {
+				for (int cy = cy1; cy <= cy2; cy++) {
+					Cell cell = this.cells.get(SpatialIndex.key(cx, cy));
+					if (cell != null) {
+						this.collect(cell, region, found);
+					}
+				}
+			}
+		}
+		this.collect(this.large, region, found);
+
+		// A shape is found once for each of its cells the region covers
+		int[] shapes = found.shapes;
+		Arrays.sort(shapes, 0, found.size);
+		int n = 0;
+		for (int k = 0; k < found.size; k++) {
+			if (n == 0 || shapes[n - 1] != shapes[k]) {
+				shapes[n++] = shapes[k];
+			}
+		}
+		return Arrays.copyOf(shapes, n);
+	}
+
+	private void collect(Cell cell, Rect region, Cell found) {
+		for (int k = 0; k < cell.size; k++) {
+			int i = cell.shapes[k];
+			if (this.types[i] != REMOVED && this.minXs[i] <= region.maxX && region.minX <= this.maxXs[i]
+					&& this.minYs[i] <= region.maxY && region.minY <= this.maxYs[i]) {
+				found.add(i);
+			}
+		}
+	}
+
+	private static int pack(Color color, boolean fill) {
+		// Truncated, as the save file formats do
+		int rgb = (int) (color.getRed() * 255) << 16 | (int) (color.getGreen() * 255) << 8 | (int) (color.getBlue() * 255);
+		return fill ? rgb | FILLED : rgb;
+	}
+
+	private Color color(int i) {
+		int rgb = this.colors[i];
+		return Color.rgb(rgb >> 16 & 0xff, rgb >> 8 & 0xff, rgb & 0xff);
+	}
+
+	private boolean isFill(int i) {
+		return (this.colors[i] & FILLED) != 0;
+	}
+
+	private Rect bounds(int i) {
+		return this.maxXs[i] < this.minXs[i] ? Rect.EMPTY : new Rect(this.minXs[i], this.minYs[i], this.maxXs[i], this.maxYs[i]);
+	}
+
+	/**
+	 * Draw shape i, as its PaintCommand would.
+	 */
+	private void execute(GraphicsContext g, int i) {
+		int[] c = this.coordinates;
+		int s = this.starts[i], end = this.starts[i + 1];
+		switch (this.types[i]) {
+		case PaintBinaryFileParser.CIRCLE:
+			int radius = c[s + 2];
+			if (this.isFill(i)) {
+				g.setFill(this.color(i));
+				g.fillOval(c[s] - radius, c[s + 1] - radius, 2 * radius, 2 * radius);
+			} else {
+				g.setStroke(this.color(i));
+				g.strokeOval(c[s] - radius, c[s + 1] - radius, 2 * radius, 2 * radius);
+			}
+			break;
+		case PaintBinaryFileParser.RECTANGLE:
+			int x = Math.min(c[s], c[s + 2]), y = Math.min(c[s + 1], c[s + 3]);
+			int width = Math.abs(c[s + 2] - c[s]), height = Math.abs(c[s + 3] - c[s + 1]);
+			if (this.isFill(i)) {
+				g.setFill(this.color(i));
+				g.fillRect(x, y, width, height);
+			} else {
+				g.setStroke(this.color(i));
+				g.strokeRect(x, y, width, height);
+			}
+			break;
+		case PaintBinaryFileParser.SQUIGGLE:
+			g.setStroke(this.color(i));
+			for (int j = s; j + 2 < end; j += 2) {
+				g.strokeLine(c[j], c[j + 1], c[j + 2], c[j + 3]);
+			}
+			break;
+		case PaintBinaryFileParser.POLYLINE:
+			int n = (end - s) / 2;
+			double[] xs = new double[n], ys = new double[n];
+			for (int j = 0; j < n; j++) {
+				xs[j] = c[s + 2 * j];
+				ys[j] = c[s + 2 * j + 1];
+			}
+			g.setStroke(this.color(i));
+			g.strokePolyline(xs, ys, n);
+			break;
+		}
+	}
+
+	/**
+	 * A shape of this, seen as a PaintCommand.
+	 */
+	private class ShapeView extends PaintCommand {
+		private int index;
+
+		ShapeView(int index) {
+			super(null, false); // the color and fill are in the arrays
+			this.index = index;
+		}
+
+		ColumnarPaintModel getModel() {
+			return ColumnarPaintModel.this;
+		}
+
+		@Override
+		public Color getColor() {
+			return ColumnarPaintModel.this.color(this.index);
+		}
+
+		@Override
+		public void setColor(Color color) {
+			ColumnarPaintModel.this.colors[this.index] = pack(color, this.isFill());
+		}
+
+		@Override
+		public boolean isFill() {
+			return ColumnarPaintModel.this.isFill(this.index);
+		}
+
+		@Override
+		public void setFill(boolean fill) {
+			ColumnarPaintModel.this.colors[this.index] = pack(this.getColor(), fill);
+		}
+
+		@Override
+		Rect getBounds() {
+			return ColumnarPaintModel.this.bounds(this.index);
+		}
+
+		@Override
+		String getShapeName() {
+			switch (ColumnarPaintModel.this.types[this.index]) {
+			case PaintBinaryFileParser.CIRCLE:
+				return "Circle";
+			case PaintBinaryFileParser.RECTANGLE:
+				return "Rectangle";
+			case PaintBinaryFileParser.SQUIGGLE:
+				return "Squiggle";
+			default:
+				return "Polyline";
+			}
+		}
+
+		@Override
+		public void execute(GraphicsContext g) {
+			ColumnarPaintModel.this.execute(g, this.index);
+		}
+
+		@Override
+		void write(PaintFileWriter writer) throws IOException {
+			int[] c = ColumnarPaintModel.this.coordinates;
+			int s = ColumnarPaintModel.this.starts[this.index], end = ColumnarPaintModel.this.starts[this.index + 1];
+			switch (ColumnarPaintModel.this.types[this.index]) {
+			case PaintBinaryFileParser.CIRCLE:
+				writer.writeShape("Circle", this.getColor(), this.isFill());
+				writer.append("\tcenter:").appendPoint(c[s], c[s + 1]).append('\n');
+				writer.append("\tradius:").append(c[s + 2]).append('\n');
+				writer.append("EndCircle\n");
+				break;
+			case PaintBinaryFileParser.RECTANGLE:
+				writer.writeShape("Rectangle", this.getColor(), this.isFill());
+				writer.append("\tp1:").appendPoint(Math.min(c[s], c[s + 2]), Math.min(c[s + 1], c[s + 3])).append('\n');
+				writer.append("\tp2:").appendPoint(Math.max(c[s], c[s + 2]), Math.max(c[s + 1], c[s + 3])).append('\n');
+				writer.append("EndRectangle\n");
+				break;
+			case PaintBinaryFileParser.SQUIGGLE:
+			case PaintBinaryFileParser.POLYLINE:
+				String name = this.isSquiggle() ? "Squiggle" : "Polyline";
+				writer.writeShape(name, this.getColor(), this.isFill());
+				writer.append("\tpoints\n");
+				for (int j = s; j < end; j += 2) {
+					writer.append("\t\tpoint:").appendPoint(c[j], c[j + 1]).append('\n');
+				}
+				writer.append("\tend points\n");
+				writer.append("End").append(name).append('\n');
+				break;
+			}
+		}
+
+		@Override
+		void write(PaintBinaryWriter writer) throws IOException {
+			int[] c = ColumnarPaintModel.this.coordinates;
+			int s = ColumnarPaintModel.this.starts[this.index], end = ColumnarPaintModel.this.starts[this.index + 1];
+			int type = ColumnarPaintModel.this.types[this.index];
+			writer.writeShape(type, this.getColor(), this.isFill());
+			if (type == PaintBinaryFileParser.SQUIGGLE || type == PaintBinaryFileParser.POLYLINE) {
+				writer.writePointCount((end - s) / 2);
+				for (int j = s; j < end; j += 2) {
+					writer.writePoint(c[j], c[j + 1]);
+				}
+			} else {
+				for (int j = s; j < end; j++) {
+					writer.writeInt(c[j]);
+				}
+			}
+		}
+
+		/**
+		 * Drawn by a copy of the shape, rather than repeating each command's 
+		 * Raster drawing code for the arrays.
+		 */
+		@Override
+		void execute(Raster r) {
+			this.toCommand().execute(r);
+		}
+
+		@Override
+		PaintCommand simplified(StrokeSimplifier simplifier) {
+			int type = ColumnarPaintModel.this.types[this.index];
+			if (type != PaintBinaryFileParser.SQUIGGLE && type != PaintBinaryFileParser.POLYLINE) {
+				return this;
+			}
+			return this.toCommand().simplified(simplifier);
+		}
+
+		/**
+		 * @return a new PaintCommand with the same shape, color and fill as this
+		 */
+		PaintCommand toCommand() {
+			int[] c = ColumnarPaintModel.this.coordinates;
+			int s = ColumnarPaintModel.this.starts[this.index], end = ColumnarPaintModel.this.starts[this.index + 1];
+			PaintCommand command;
+			switch (ColumnarPaintModel.this.types[this.index]) {
+			case PaintBinaryFileParser.CIRCLE:
+				command = new CircleCommand(new Point(c[s], c[s + 1]), c[s + 2]);
+				break;
+			case PaintBinaryFileParser.RECTANGLE:
+				command = new RectangleCommand(new Point(c[s], c[s + 1]), new Point(c[s + 2], c[s + 3]));
+				break;
+			case PaintBinaryFileParser.SQUIGGLE:
+				SquiggleCommand squiggle = new SquiggleCommand();
+				for (int j = s; j < end; j += 2) {
+					squiggle.add(c[j], c[j + 1]);
+				}
+				command = squiggle;
+				break;
+			default:
+				PolyLineCommand polyline = new PolyLineCommand();
+				for (int j = s; j < end; j += 2) {
+					polyline.add(c[j], c[j + 1]);
+				}
+				command = polyline;
+				break;
+			}
+			command.setColor(this.getColor());
+			command.setFill(this.isFill());
+			return command;
+		}
+
+		private boolean isSquiggle() {
+			return ColumnarPaintModel.this.types[this.index] == PaintBinaryFileParser.SQUIGGLE;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ColumnarPaintModelTest {
+
+	@Test
+	public void columnarModelTest() throws IOException {
+		for (File file : new File("samplefiles").listFiles()) {
+			PaintModel paintModel = new PaintModel();
+			ColumnarPaintModel columnarPaintModel = new ColumnarPaintModel();
+			boolean retVal = new PaintFileParser().parse(file.toPath(), paintModel);
+			assertEquals(file + ": Parse result", retVal, new PaintFileParser().parse(file.toPath(), columnarPaintModel));
+			assertEquals(file + ": Commands", report(paintModel), report(columnarPaintModel));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(), columnarOut = new ByteArrayOutputStream();
+			paintModel.saveBinary(out);
+			columnarPaintModel.saveBinary(columnarOut);
+			assertArrayEquals(file + ": Binary save", out.toByteArray(), columnarOut.toByteArray());
+		}
+	}
+
+	@Test
+	public void columnarQueryTest() {
+		// The same shapes in both models, some in many cells, one empty
+		PaintModel paintModel = new PaintModel();
+		ColumnarPaintModel columnarPaintModel = new ColumnarPaintModel();
+		Random random = new Random(3);
+		ArrayList<PaintCommand> shapes = new ArrayList<PaintCommand>();
+		for (int i = 0; i < 500; i++) {
+			Point p = new Point(random.nextInt(2000) - 500, random.nextInt(2000) - 500);
+			if (i % 3 == 0) {
+				shapes.add(new CircleCommand(p, random.nextInt(100)));
+			} else if (i % 3 == 1) {
+				shapes.add(new RectangleCommand(p, new Point(p.x - random.nextInt(300), p.y + random.nextInt(300))));
+			} else {
+				SquiggleCommand squiggle = new SquiggleCommand();
+				for (int j = 0; j < 20; j++) squiggle.add(p.x + random.nextInt(200), p.y + random.nextInt(200));
+				shapes.add(squiggle);
+			}
+		}
+		shapes.add(new RectangleCommand(new Point(-50000, -50000), new Point(50000, 50000)));
+		shapes.add(new SquiggleCommand());
+		for (PaintCommand c : shapes) {
+			paintModel.addCommand(c);
+			columnarPaintModel.addCommand(c);
+		}
+		ArrayList<PaintCommand> views = new ArrayList<PaintCommand>();
+		for (PaintCommand c : columnarPaintModel.commands()) {
+			views.add(c);
+		}
+
+		for (int i = 0; i < 200; i++) {
+			if (i == 100) {
+				// Removed shapes are no longer found
+				for (int j = 0; j < 500; j += 7) {
+					paintModel.removeCommand(shapes.get(j));
+					columnarPaintModel.removeCommand(views.get(j));
+				}
+			}
+			int x = random.nextInt(3000) - 1000, y = random.nextInt(3000) - 1000;
+			Rect region = new Rect(x, y, x + random.nextInt(i < 50 ? 10 : 1000), y + random.nextInt(i < 50 ? 10 : 1000));
+			List<PaintCommand> found = columnarPaintModel.getCommandsIn(region);
+			assertEquals(region + ": Found", reports(paintModel.getCommandsIn(region)), reports(found));
+			assertEquals(region + ": The same views again", found, columnarPaintModel.getCommandsIn(region));
+			for (int k = 0; k < found.size(); k++) {
+				assertSame(region + ": View " + k, found.get(k), columnarPaintModel.getCommandsIn(region).get(k));
+			}
+		}
+		assertSame("Top command, the empty stroke", views.get(views.size() - 1), columnarPaintModel.getTopCommand());
+		assertEquals("Empty region", List.of(), columnarPaintModel.getCommandsIn(Rect.EMPTY));
+	}
+
+	private static String reports(List<PaintCommand> commands) {
+		StringBuilder s = new StringBuilder();
+		for (PaintCommand c : commands) {
+			s.append(c.report());
+		}
+		return s.toString();
+	}
+
+	/**
+	 * @return the model as it would be saved
+	 */
+	private String report(PaintModel paintModel) {
+		StringWriter s = new StringWriter();
+		paintModel.save(new PrintWriter(s));
+		return s.toString();
+	}
+}
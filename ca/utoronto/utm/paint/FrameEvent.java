@@ -0,0 +1,35 @@
+package ca.utoronto.utm.paint;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one repaint of a PaintPanel. Its duration
+ * is the time taken to issue the drawing calls for the frame, on the JavaFX
+ * application thread. Set a threshold of 16 ms on the event to record only
+ * the frames that miss the budget of a 60 Hz display.
+ *
+ * @author
+ *
+ */
+@Name("ca.utoronto.utm.paint.Frame")
+@Label("Paint Frame")
+@Category("Paint")
+@Description("One repaint of the paint canvas")
+class FrameEvent extends Event {
+	@Label("Region Width")
+	int width;
+
+	@Label("Region Height")
+	int height;
+
+	@Label("Commands Drawn")
+	int commands;
+
+	@Label("Tiles Drawn")
+	@Description("Cached tiles that were drawn again before being copied in")
+	int tilesDrawn;
+}
@@ -0,0 +1,212 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A binary save file, read only as its shapes are asked for. The file and
+ * its SaveFileIndex are memory mapped, and opening them reads nothing but
+ * the bounds in the index, so a drawing of any size opens at once. A shape
+ * is read from its block when it is first asked for, by position in the
+ * drawing order or because it lies in a region being drawn.
+ *
+ * The shapes read are held by soft references, so the garbage collector
+ * drops those not in use when memory runs short, and they are read again
+ * if they are needed again. A shape read again is a new command, equal in
+ * content to, but not the same object as, the one read before.
+ *
+ * Regions are found by checking the bounds of groups of GROUP consecutive
+ * shapes, worked out as the file is opened, then the bounds of each shape
+ * in the groups that reach into the region. Shapes drawn one after another
+ * tend to be near each other, so most groups are passed over.
+ *
+ * Must be used on one thread at a time.
+ *
+ * @author
+ *
+ */
+class LazyPaintFile {
+	private static final int GROUP = 1024; // shapes whose bounds are checked together
+	private static final long CHUNK = 1L << 30; // bytes of the save file in each mapping
+
+	private MappedByteBuffer[] chunks; // the save file, CHUNK bytes at a time
+	private long end; // the offset of the save file's end marker
+	private ByteBuffer index; // the entries of the index
+	private int count; // shapes in the file
+	private Rect[] groups; // the bounds of each group of shapes
+
+	/**
+	 * A shape that has been read, which may be dropped.
+	 */
+	private static class Read extends SoftReference<PaintCommand> {
+		int i;
+
+		Read(int i, PaintCommand command, ReferenceQueue<PaintCommand> queue) {
+			super(command, queue);
+			this.i = i;
+		}
+	}
+
+	private HashMap<Integer, Read> read = new HashMap<Integer, Read>();
+	private ReferenceQueue<PaintCommand> dropped = new ReferenceQueue<PaintCommand>();
+
+	/**
+	 * Open path, if it has an up to date index.
+	 * @return the file, null if it has no index, or the index is out of date
+	 */
+	static LazyPaintFile open(Path path) throws IOException {
+		long size = Files.size(path), modified = Files.getLastModifiedTime(path).toMillis();
+		Path indexPath = SaveFileIndex.of(path);
+		if (!Files.exists(indexPath)) return null;
+		LazyPaintFile file = new LazyPaintFile();
+		try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+			long count = SaveFileIndex.check(index, size, modified);
+			if (count < 0) return null;
+			if (count > (Integer.MAX_VALUE - SaveFileIndex.HEADER_BYTES) / SaveFileIndex.ENTRY_BYTES) {
+				throw new IOException("Too many shapes to open lazily: " + count);
+			}
+			file.count = (int) count;
+			file.index = index.map(FileChannel.MapMode.READ_ONLY, SaveFileIndex.HEADER_BYTES, count * SaveFileIndex.ENTRY_BYTES);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			file.chunks = new MappedByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+			for (int i = 0; i < file.chunks.length; i++) {
+				file.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * CHUNK, Math.min(CHUNK, size - i * CHUNK));
+			}
+		}
+		file.end = size - 1;
+		file.groups = new Rect[(file.count + GROUP - 1) / GROUP];
+		for (int g = 0; g < file.groups.length; g++) {
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+			for (int i = g * GROUP; i < Math.min(file.count, (g + 1) * GROUP); i++) {
+				int at = i * SaveFileIndex.ENTRY_BYTES + 8;
+				int x1 = file.index.getInt(at), y1 = file.index.getInt(at + 4), x2 = file.index.getInt(at + 8), y2 = file.index.getInt(at + 12);
+				if (x2 < x1 || y2 < y1) continue; // an empty shape
+				minX = Math.min(minX, x1);
+				minY = Math.min(minY, y1);
+				maxX = Math.max(maxX, x2);
+				maxY = Math.max(maxY, y2);
+			}
+			file.groups[g] = minX > maxX ? Rect.EMPTY : new Rect(minX, minY, maxX, maxY);
+		}
+		return file;
+	}
+
+	private LazyPaintFile() {
+	}
+
+	/**
+	 * @return the number of shapes in the file
+	 */
+	int size() {
+		return this.count;
+	}
+
+	/**
+	 * @return the bounds of shape i, as the index has them
+	 */
+	Rect getBounds(int i) {
+		int at = i * SaveFileIndex.ENTRY_BYTES + 8;
+		return new Rect(this.index.getInt(at), this.index.getInt(at + 4), this.index.getInt(at + 8), this.index.getInt(at + 12));
+	}
+
+	/**
+	 * @return shape i, read from the file if it is not already at hand
+	 */
+	PaintCommand get(int i) {
+		this.purge();
+		Read r = this.read.get(i);
+		PaintCommand command = r == null ? null : r.get();
+		if (command == null) {
+			command = this.readShape(i);
+			this.read.put(i, new Read(i, command, this.dropped));
+		}
+		return command;
+	}
+
+	/**
+	 * @return shapes from up to, but not including, to, in drawing order
+	 */
+	List<PaintCommand> getCommands(int from, int to) {
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>(Math.max(0, to - from));
+		for (int i = from; i < to; i++) {
+			commands.add(this.get(i));
+		}
+		return commands;
+	}
+
+	/**
+	 * @return the shapes whose bounds intersect region, in drawing order
+	 */
+	List<PaintCommand> getCommandsIn(Rect region) {
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+		for (int g = 0; g < this.groups.length; g++) {
+			if (!this.groups[g].intersects(region)) continue;
+			for (int i = g * GROUP; i < Math.min(this.count, (g + 1) * GROUP); i++) {
+				if (this.getBounds(i).intersects(region)) {
+					commands.add(this.get(i));
+				}
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * @return shape i, read from the file afresh, and not kept
+	 */
+	PaintCommand readShape(int i) {
+		long offset = this.index.getLong(i * SaveFileIndex.ENTRY_BYTES);
+		long next = i + 1 < this.count ? this.index.getLong((i + 1) * SaveFileIndex.ENTRY_BYTES) : this.end;
+		try {
+			return new PaintBlockReader(this.block(offset, next)).readShape();
+		} catch (IOException e) {
+			throw new IllegalStateException("Shape " + i + " of the file can not be read: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the bytes of the file from offset up to end
+	 */
+	private ByteBuffer block(long offset, long end) {
+		int c = (int) (offset / CHUNK);
+		if ((end - 1) / CHUNK == c) {
+			ByteBuffer chunk = this.chunks[c].duplicate();
+			chunk.limit((int) (end - c * CHUNK)).position((int) (offset - c * CHUNK));
+			return chunk.slice();
+		}
+		// The block spans mappings, copy it together
+		ByteBuffer block = ByteBuffer.allocate((int) (end - offset));
+		while (block.hasRemaining()) {
+			long at = offset + block.position();
+			c = (int) (at / CHUNK);
+			ByteBuffer chunk = this.chunks[c].duplicate();
+			chunk.position((int) (at - c * CHUNK));
+			chunk.limit(Math.min(chunk.capacity(), chunk.position() + block.remaining()));
+			block.put(chunk);
+		}
+		block.flip();
+		return block;
+	}
+
+	/**
+	 * Forget the shapes the garbage collector has dropped.
+	 */
+	private void purge() {
+		Read r;
+		while ((r = (Read) this.dropped.poll()) != null) {
+			if (this.read.get(r.i) == r) {
+				this.read.remove(r.i);
+			}
+		}
+	}
+}
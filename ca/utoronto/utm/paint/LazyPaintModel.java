@@ -0,0 +1,70 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A paint model whose drawing is a LazyPaintFile, with whatever is drawn
+ * after it was opened on top. The shapes of the file are read only as they
+ * come into view, so opening it costs next to nothing, however large it is.
+ *
+ * The shapes of the file can be drawn, and saved, but not edited: they are
+ * not commands of this as far as getTopCommand, removeCommand and the undo
+ * history are concerned, only the shapes drawn on top are. Going through
+ * all the commands, as saving does, reads each shape of the file in turn
+ * without keeping them.
+ *
+ * @author
+ *
+ */
+class LazyPaintModel extends PaintModel {
+	private LazyPaintFile file;
+
+	LazyPaintModel(LazyPaintFile file) {
+		this.file = file;
+	}
+
+	@Override
+	public void reset() {
+		this.file = null;
+		super.reset();
+	}
+
+	@Override
+	Iterable<PaintCommand> commands() {
+		final LazyPaintFile file = this.file;
+		final Iterable<PaintCommand> added = super.commands();
+		if (file == null) return added;
+		return () -> new Iterator<PaintCommand>() {
+			private int next = 0;
+			private Iterator<PaintCommand> rest = null;
+
+			@Override
+			public boolean hasNext() {
+				if (this.next < file.size()) return true;
+				if (this.rest == null) this.rest = added.iterator();
+				return this.rest.hasNext();
+			}
+
+			@Override
+			public PaintCommand next() {
+				if (!this.hasNext()) throw new NoSuchElementException();
+				return this.rest == null ? file.readShape(this.next++) : this.rest.next();
+			}
+		};
+	}
+
+	@Override
+	public List<PaintCommand> getCommandsAt(int x, int y) {
+		return this.getCommandsIn(new Rect(x, y, x, y));
+	}
+
+	@Override
+	public List<PaintCommand> getCommandsIn(Rect region) {
+		if (this.file == null) return super.getCommandsIn(region);
+		List<PaintCommand> commands = this.file.getCommandsIn(region);
+		commands.addAll(super.getCommandsIn(region));
+		return commands;
+	}
+}
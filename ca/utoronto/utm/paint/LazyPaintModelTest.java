@@ -0,0 +1,66 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class LazyPaintModelTest {
+
+	@Test
+	public void lazyLoadTest() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+		Path file = Files.createTempFile("lazy", PaintBinaryFileParser.EXTENSION);
+		file.toFile().deleteOnExit();
+		SaveFileIndex.of(file).toFile().deleteOnExit();
+		new SaveFileLayout(file, null).save(paintModel);
+
+		// Read with the index, shapes appear as they would had the file been parsed
+		LazyPaintFile lazy = LazyPaintFile.open(file);
+		assertNotNull("Index", lazy);
+		LazyPaintModel lazyModel = new LazyPaintModel(lazy);
+		assertEquals("All shapes", report(paintModel), report(lazyModel));
+		Rect region = new Rect(0, 0, 100, 100);
+		assertEquals("Shapes in a region", paintModel.getCommandsIn(region).size(), lazyModel.getCommandsIn(region).size());
+		assertSame("Shapes read are kept", lazy.get(0), lazy.get(0));
+		CircleCommand circle = new CircleCommand(new Point(50, 50), 5);
+		lazyModel.addCommand(circle);
+		assertSame("Shapes drawn on top", circle, lazyModel.getTopCommand());
+
+		// Saved a shape at a time, with an index of its own
+		Path saved = Files.createTempFile("lazy", PaintBinaryFileParser.EXTENSION);
+		saved.toFile().deleteOnExit();
+		SaveFileIndex.of(saved).toFile().deleteOnExit();
+		long written = SaveFileIndex.save(saved, lazyModel, null);
+		assertEquals("Saved", Files.size(saved), written);
+		LazyPaintFile reopened = LazyPaintFile.open(saved);
+		assertNotNull("Saved with an index", reopened);
+		assertEquals("Saved shapes", report(lazyModel), report(new LazyPaintModel(reopened)));
+		assertEquals("Saved bounds", circle.getBounds().toString(), reopened.getBounds(reopened.size() - 1).toString());
+
+		// Readers that know nothing of the index are not affected by it
+		PaintModel parsed = new PaintModel();
+		assertTrue(new PaintBinaryFileParser().parse(file, parsed));
+		assertEquals("Parsed", report(paintModel), report(parsed));
+
+		// An index that is out of date is not used
+		paintModel.saveBinary(Files.newOutputStream(file, StandardOpenOption.APPEND));
+		assertNull("Out of date", LazyPaintFile.open(file));
+	}
+
+	/**
+	 * @return the model as it would be saved
+	 */
+	private String report(PaintModel paintModel) {
+		StringWriter s = new StringWriter();
+		paintModel.save(new PrintWriter(s));
+		return s.toString();
+	}
+}
@@ -0,0 +1,39 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Arrays;
+
+/**
+ * Copy on write arrays of listeners. Telling the listeners of a change is
+ * a loop over the array at hand, with no lock and nothing allocated, while
+ * adding or removing one, which is rare, makes a new array.
+ *
+ * @author
+ *
+ */
+final class Listeners {
+	private Listeners() {
+	}
+
+	/**
+	 * @return listeners with listener added at the end
+	 */
+	static <L> L[] with(L[] listeners, L listener) {
+		L[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		return added;
+	}
+
+	/**
+	 * @return listeners without listener, listeners itself if it is not there
+	 */
+	static <L> L[] without(L[] listeners, L listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				L[] removed = Arrays.copyOf(listeners, listeners.length - 1);
+				System.arraycopy(listeners, i + 1, removed, i, listeners.length - 1 - i);
+				return removed;
+			}
+		}
+		return listeners;
+	}
+}
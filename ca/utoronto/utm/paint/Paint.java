@@ -1,5 +1,8 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 
@@ -7,6 +10,7 @@ public class Paint extends Application {
 
 	PaintModel model; // Model
 	View view; // View + Controller
+	PaintJournal journal; // so the drawing survives a crash, null if not wanted
 
 	public static void main(String[] args) {
 		launch(args);
@@ -17,7 +21,29 @@ public class Paint extends Application {
 		
 		this.model = new PaintModel();
 		
+		// Recover the drawing from the journal, kept in the directory named
+		// by paint.journal, an empty name for no journal
+		String directory = System.getProperty("paint.journal", Paths.get(System.getProperty("user.home"), ".paint", "journal").toString());
+		if (!directory.isEmpty()) {
+			try {
+				this.journal = PaintJournal.open(Paths.get(directory));
+				this.model = this.journal.getPaintModel();
+			} catch (IOException | RuntimeException e) {
+				System.out.println("Paint journal not opened: " + e);
+			}
+		}
+		
 		// View + Controller
 		this.view = new View(model, stage);
+		if (this.journal != null) {
+			this.view.setJournal(this.journal);
+		}
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (this.journal != null) {
+			this.journal.close();
+		}
 	}
 }
@@ -0,0 +1,325 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Parse a file in the binary paint save file format. This holds the same
+ * drawing as the Version 1.0 text format in a fraction of the space.
+ *
+ * The file starts with the magic bytes PNTB and a version byte, currently 1.
+ * A sequence of shape blocks follows, ending with a single 0 byte. Each shape
+ * block starts with a tag byte, whose low bits give the shape type and whose
+ * high bit is set if the shape is filled, then three bytes of red, green and blue.
+ * The rest of the block depends on the type, all values are zig-zag varints:
+ *
+ *   Circle     centre x, centre y, radius
+ *   Rectangle  p1 x, p1 y, p2 x, p2 y
+ *   Squiggle   an unsigned varint point count, then the points
+ *   Polyline   as Squiggle
+ *
+ * The first point of a list is stored as is, each following point as the
+ * difference from the point before it, so a point usually takes two bytes.
+ *
+ * As for PaintFileParser, after an unsuccessful parse the instance has an
+ * error message saying where and what the problem was.
+ *
+ * @author
+ *
+ */
+public class PaintBinaryFileParser {
+	static final byte[] MAGIC = { 'P', 'N', 'T', 'B' };
+	static final int VERSION = 1;
+	static final String EXTENSION = ".pntb"; // the file name extension for binary save files
+
+	// Shape block tags
+	static final int END = 0, CIRCLE = 1, RECTANGLE = 2, SQUIGGLE = 3, POLYLINE = 4;
+	static final int FILLED = 0x80;
+
+	private InputStream in;
+	private byte[] buffer = new byte[1 << 16];
+	private int pos = 0, count = 0; // the unread bytes are buffer[pos,count)
+	private long offset = 0; // the offset in the file of buffer[0]
+
+	private String errorMessage = ""; // error encountered during parse
+	private PaintModel paintModel;
+	private volatile boolean cancelled = false; // set from another thread to abandon the parse
+	private StrokeSimplifier simplifier = null; // applied to each squiggle and polyline, if set
+	private SaveFileLayout layout = null; // told where each block is, if set
+	private ParseEvent event = null; // for the parse in progress, if Flight Recorder wants it
+
+	/**
+	 * @return whether the file at path starts with the binary format's magic bytes
+	 */
+	public static boolean isBinary(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			for (byte b : MAGIC) {
+				if (in.read() != b) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Store an appropriate error message in this, including the
+	 * offset of the byte where the error was found.
+	 * @param mesg
+	 */
+	private void error(String mesg) {
+		this.error(this.offset + this.pos, mesg);
+	}
+
+	private void error(long at, String mesg) {
+		this.errorMessage = "Error at byte " + at + " " + mesg;
+	}
+
+	/**
+	 * @return the error message resulting from an unsuccessful parse
+	 */
+	public String getErrorMessage() {
+		return this.errorMessage;
+	}
+
+	/**
+	 * Ask a parse running on another thread to stop at the next shape.
+	 * The abandoned parse returns false.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Simplify each squiggle and polyline as it is parsed.
+	 * @param simplifier null to keep them as they are in the file
+	 */
+	void setSimplifier(StrokeSimplifier simplifier) {
+		this.simplifier = simplifier;
+	}
+
+	/**
+	 * Tell layout where each block is as it is parsed, so the file can later
+	 * be saved incrementally.
+	 * @param layout null for no layout
+	 */
+	void setLayout(SaveFileLayout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * Called as each command is completed during the parse. By default
+	 * the command is added to the paint model.
+	 * @param command
+	 */
+	void addCommand(PaintCommand command) {
+		this.paintModel.addCommand(command);
+	}
+
+	/**
+	 * Parse the file at path as a binary paint save file.
+	 * @param path the file to parse
+	 * @param paintModel the paint model to add the commands to
+	 * @return whether the complete file was successfully parsed
+	 * @throws IOException if the file can not be opened
+	 */
+	public boolean parse(Path path, PaintModel paintModel) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return this.parse(in, paintModel, path);
+		}
+	}
+
+	/**
+	 * Parse inputStream as a binary paint save file.
+	 * @param inputStream the open file to parse
+	 * @param paintModel the paint model to add the commands to, 
+	 * null if addCommand is overridden to send them elsewhere
+	 * @return whether the complete file was successfully parsed
+	 */
+	public boolean parse(InputStream inputStream, PaintModel paintModel) {
+		return this.parse(inputStream, paintModel, null);
+	}
+
+	/**
+	 * Parse inputStream, recording a Flight Recorder ParseEvent for it if one is wanted.
+	 * @param path the file inputStream reads, null if not known
+	 */
+	private boolean parse(InputStream inputStream, PaintModel paintModel, Path path) {
+		ParseEvent event = new ParseEvent();
+		if (event.isEnabled()) {
+			event.file = path == null ? null : path.toString();
+			event.format = "binary";
+			event.begin();
+			this.event = event;
+		}
+		boolean result = this.parseShapes(inputStream, paintModel);
+		if (this.event != null) {
+			this.event.bytes = this.offset + this.pos;
+			this.event.finish(result, this.errorMessage);
+			this.event = null;
+		}
+		return result;
+	}
+
+	private boolean parseShapes(InputStream inputStream, PaintModel paintModel) {
+		this.in = inputStream;
+		this.paintModel = paintModel;
+		this.errorMessage = "";
+		this.pos = this.count = 0;
+		this.offset = 0;
+		if (paintModel != null) {
+			paintModel.beginUpdate(); // listeners hear about the whole file once
+		}
+		try {
+			for (byte b : MAGIC) {
+				if (this.readByte() != b) {
+					error("Expected start of binary paint save file");
+					return false;
+				}
+			}
+			if (this.readByte() != VERSION) {
+				error("Unsupported binary paint save file version");
+				return false;
+			}
+			while (true) {
+				if (this.cancelled) {
+					error("Parse cancelled");
+					return false;
+				}
+				long start = this.offset + this.pos;
+				int tag = this.readByte();
+				if (tag == END) {
+					break;
+				}
+				if (tag < 0) {
+					error("Expected end of file marker");
+					return false;
+				}
+				int type = tag & ~FILLED;
+				if (type < CIRCLE || type > POLYLINE) {
+					error(start, "Unknown shape type " + type);
+					return false;
+				}
+				boolean fill = (tag & FILLED) != 0;
+				Color color = this.readColor();
+				PaintCommand command;
+				boolean exact = true; // whether command is just as the block has it
+				switch (type) {
+				case CIRCLE:
+					command = new CircleCommand(this.readPoint(), this.readInt());
+					break;
+				case RECTANGLE:
+					command = new RectangleCommand(this.readPoint(), this.readPoint());
+					break;
+				case SQUIGGLE:
+					SquiggleCommand squiggleCommand = new SquiggleCommand();
+					int n = this.readUnsigned();
+					int x = 0, y = 0;
+					for (int i = 0; i < n; i++) {
+						x += this.readInt();
+						y += this.readInt();
+						squiggleCommand.add(x, y);
+					}
+					if (this.simplifier != null) squiggleCommand.simplify(this.simplifier);
+					exact = squiggleCommand.getPointBuffer().size() == n;
+					squiggleCommand.getPointBuffer().trimToSize();
+					command = squiggleCommand;
+					break;
+				default: // POLYLINE
+					PolyLineCommand polylineCommand = new PolyLineCommand();
+					n = this.readUnsigned();
+					x = 0;
+					y = 0;
+					for (int i = 0; i < n; i++) {
+						x += this.readInt();
+						y += this.readInt();
+						polylineCommand.add(x, y);
+					}
+					if (this.simplifier != null) polylineCommand.simplify(this.simplifier);
+					exact = polylineCommand.getPointBuffer().size() == n;
+					polylineCommand.getPointBuffer().trimToSize();
+					command = polylineCommand;
+					break;
+				}
+
+				command.setColor(color);
+				command.setFill(fill);
+				if (this.event != null) this.event.count(command);
+				if (this.layout != null) this.layout.loaded(command, start, exact);
+				this.addCommand(command);
+			}
+			long end = this.offset + this.pos - 1;
+			if (this.readByte() >= 0) {
+				error("Extra bytes past expected end of file");
+				return false;
+			}
+			if (this.layout != null) this.layout.loadedEnd(end);
+		} catch (IOException e) {
+			error("Unexpected error, please verify integrity of file");
+			return false;
+		} finally {
+			if (paintModel != null) {
+				paintModel.endUpdate();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next byte, 0..255, or -1 at the end of the file
+	 */
+	private int readByte() throws IOException {
+		if (this.pos == this.count) {
+			this.offset += this.count;
+			this.pos = 0;
+			this.count = Math.max(0, this.in.read(this.buffer));
+			if (this.count == 0) {
+				return -1;
+			}
+		}
+		return this.buffer[this.pos++] & 0xff;
+	}
+
+	/**
+	 * @return the next byte, failing if the file ends before it
+	 */
+	private int readRequiredByte() throws IOException {
+		int b = this.readByte();
+		if (b < 0) {
+			throw new IOException("Unexpected end of file");
+		}
+		return b;
+	}
+
+	private int readUnsigned() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.readRequiredByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private int readInt() throws IOException {
+		int value = this.readUnsigned();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private Point readPoint() throws IOException {
+		int x = this.readInt();
+		return new Point(x, this.readInt());
+	}
+
+	private Color readColor() throws IOException {
+		int r = this.readRequiredByte();
+		int g = this.readRequiredByte();
+		return Color.rgb(r, g, this.readRequiredByte());
+	}
+}
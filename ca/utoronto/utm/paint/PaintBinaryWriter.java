@@ -0,0 +1,122 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Write a paint model in the binary paint save file format. Each PaintCommand
+ * writes its own shape block through an instance of this class. For the layout
+ * of the format see PaintBinaryFileParser.
+ *
+ * Output is collected in a large buffer, so writing a command is a series of
+ * stores into an array rather than calls on the underlying stream.
+ *
+ * @author
+ *
+ */
+class PaintBinaryWriter {
+	private OutputStream out;
+	private byte[] buffer = new byte[1 << 16];
+	private int count = 0; // bytes in buffer
+	private long flushed = 0; // bytes already passed to out
+	private int lastX, lastY; // the previous point in a list of points
+
+	PaintBinaryWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write the magic number and version that start every binary save file.
+	 */
+	void writeHeader() throws IOException {
+		for (byte b : PaintBinaryFileParser.MAGIC) {
+			this.writeByte(b);
+		}
+		this.writeByte(PaintBinaryFileParser.VERSION);
+	}
+
+	/**
+	 * Write the end of file marker and flush everything to the underlying stream.
+	 */
+	void writeEnd() throws IOException {
+		this.writeByte(PaintBinaryFileParser.END);
+		this.flush();
+	}
+
+	/**
+	 * Start a shape block.
+	 * @param type one of the shape types in PaintBinaryFileParser
+	 * @param color
+	 * @param fill
+	 */
+	void writeShape(int type, Color color, boolean fill) throws IOException {
+		this.writeByte(fill ? type | PaintBinaryFileParser.FILLED : type);
+		this.writeByte((int) (color.getRed() * 255));
+		this.writeByte((int) (color.getGreen() * 255));
+		this.writeByte((int) (color.getBlue() * 255));
+	}
+
+	/**
+	 * Write an int as a zig-zag varint, so small magnitudes, positive or negative, take a byte.
+	 */
+	void writeInt(int value) throws IOException {
+		this.writeUnsigned((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Write the bits of value as an unsigned varint, seven bits to a byte, low bits first.
+	 */
+	void writeUnsigned(int value) throws IOException {
+		if (this.count + 5 > this.buffer.length) {
+			this.flush();
+		}
+		while ((value & ~0x7F) != 0) {
+			this.buffer[this.count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.count++] = (byte) value;
+	}
+
+	/**
+	 * Start a list of n points, to be followed by n calls to writePoint.
+	 */
+	void writePointCount(int n) throws IOException {
+		this.writeUnsigned(n);
+		this.lastX = 0;
+		this.lastY = 0;
+	}
+
+	/**
+	 * Write the next point in a list. The first point is written as is,
+	 * every other point as the difference from the one before.
+	 */
+	void writePoint(int x, int y) throws IOException {
+		this.writeInt(x - this.lastX);
+		this.writeInt(y - this.lastY);
+		this.lastX = x;
+		this.lastY = y;
+	}
+
+	private void writeByte(int b) throws IOException {
+		if (this.count == this.buffer.length) {
+			this.flush();
+		}
+		this.buffer[this.count++] = (byte) b;
+	}
+
+	/**
+	 * @return the number of bytes written by this so far
+	 */
+	long getPosition() {
+		return this.flushed + this.count;
+	}
+
+	void flush() throws IOException {
+		this.out.write(this.buffer, 0, this.count);
+		this.flushed += this.count;
+		this.count = 0;
+		this.out.flush();
+	}
+}
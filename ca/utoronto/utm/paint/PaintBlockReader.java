@@ -0,0 +1,114 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Reads values, and whole shape blocks, written by PaintBinaryWriter, from
+ * bytes already in memory: a journal record, or a block of a memory mapped
+ * save file. PaintBinaryFileParser reads a whole file as a stream instead.
+ *
+ * @author
+ *
+ */
+class PaintBlockReader {
+	private ByteBuffer buffer;
+
+	/**
+	 * @param buffer read from its position on
+	 */
+	PaintBlockReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	PaintBlockReader(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @return the shape block starting at the current position, as a command
+	 */
+	PaintCommand readShape() throws IOException {
+		int tag = this.readByte();
+		Color color = this.readColor();
+		PaintCommand command;
+		switch (tag & ~PaintBinaryFileParser.FILLED) {
+		case PaintBinaryFileParser.CIRCLE:
+			command = new CircleCommand(this.readPoint(), this.readInt());
+			break;
+		case PaintBinaryFileParser.RECTANGLE:
+			command = new RectangleCommand(this.readPoint(), this.readPoint());
+			break;
+		case PaintBinaryFileParser.SQUIGGLE:
+			command = new SquiggleCommand();
+			this.readPoints(command);
+			break;
+		case PaintBinaryFileParser.POLYLINE:
+			command = new PolyLineCommand();
+			this.readPoints(command);
+			break;
+		default:
+			throw new IOException("Unknown shape type " + (tag & ~PaintBinaryFileParser.FILLED));
+		}
+		command.setColor(color);
+		command.setFill((tag & PaintBinaryFileParser.FILLED) != 0);
+		return command;
+	}
+
+	int readByte() throws IOException {
+		try {
+			return this.buffer.get() & 0xff;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Unexpected end of block");
+		}
+	}
+
+	int readUnsigned() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	int readInt() throws IOException {
+		int value = this.readUnsigned();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	Point readPoint() throws IOException {
+		int x = this.readInt();
+		return new Point(x, this.readInt());
+	}
+
+	Color readColor() throws IOException {
+		int r = this.readByte();
+		int g = this.readByte();
+		return Color.rgb(r, g, this.readByte());
+	}
+
+	/**
+	 * Append a point list to command, a squiggle or polyline.
+	 */
+	void readPoints(PaintCommand command) throws IOException {
+		SquiggleCommand squiggle = command instanceof SquiggleCommand ? (SquiggleCommand) command : null;
+		int n = this.readUnsigned();
+		int x = 0, y = 0;
+		for (int i = 0; i < n; i++) {
+			x += this.readInt();
+			y += this.readInt();
+			if (squiggle != null) {
+				squiggle.add(x, y);
+			} else {
+				((PolyLineCommand) command).add(x, y);
+			}
+		}
+	}
+}
@@ -1,45 +1,167 @@
 package ca.utoronto.utm.paint;
-import java.util.Observable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
-public abstract class PaintCommand extends Observable {
+public abstract class PaintCommand {
+	private static final PaintCommandListener[] NO_LISTENERS = {};
+	private static final AtomicReferenceFieldUpdater<PaintCommand, PaintCommandListener[]> LISTENERS =
+			AtomicReferenceFieldUpdater.newUpdater(PaintCommand.class, PaintCommandListener[].class, "listeners");
+	
 	private Color color;
 	private boolean fill;
+	private int changes = 0; // how many times this has changed, see getChangeCount
+	private volatile PaintCommandListener[] listeners = NO_LISTENERS; // see Listeners
 	
 	PaintCommand(){
-		// Pick a random color for this
-		int r = (int)(Math.random()*256);
-		int g = (int)(Math.random()*256);
-		int b= (int)(Math.random()*256);
+		// Pick a random color for this. Commands are created on several threads 
+		// during a parallel parse, so avoid contending on Math.random's generator.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int r = random.nextInt(256);
+		int g = random.nextInt(256);
+		int b= random.nextInt(256);
 		this.color = Color.rgb(r, g, b);
 		
-		this.fill = (1==(int)(Math.random()*2));
+		this.fill = random.nextBoolean();
+	}
+	
+	/**
+	 * A command of the given color and fill, without picking a random one.
+	 */
+	PaintCommand(Color color, boolean fill){
+		this.color = color;
+		this.fill = fill;
 	}
 	public Color getColor() {
 		return color;
 	}
 	public void setColor(Color color) {
 		this.color = color;
+		this.changes++;
+	}
+	/**
+	 * @return the color of this as a packed ARGB int, as Raster takes it
+	 */
+	int getArgb() {
+		Color color = this.getColor();
+		return (int) Math.round(color.getOpacity() * 255) << 24 | (int) Math.round(color.getRed() * 255) << 16
+				| (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
 	}
 	public boolean isFill() {
 		return fill;
 	}
 	public void setFill(boolean fill) {
 		this.fill = fill;
+		this.changes++;
 	}
 	public String toString(){
-		double r = this.color.getRed();
-		double g = this.color.getGreen();
-		double b = this.color.getBlue();
+		double r = this.getColor().getRed();
+		double g = this.getColor().getGreen();
+		double b = this.getColor().getBlue();
 
 		String s = "";
 		s+="\tcolor:"+r+","+g+","+b+"\n";
-		s+="\tfilled:"+this.fill+"\n";
+		s+="\tfilled:"+this.isFill()+"\n";
 		return s;
 	}
 	
-	public abstract String report();
+	/**
+	 * @return this as a shape block of the text save file format
+	 */
+	public String report() {
+		StringBuilder s = new StringBuilder();
+		try {
+			PaintFileWriter writer = new PaintFileWriter(s, 256);
+			this.write(writer);
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // a StringBuilder does not throw
+		}
+		return s.toString();
+	}
+	
+	/**
+	 * Write this as a shape block of the text save file format.
+	 * @param writer
+	 */
+	abstract void write(PaintFileWriter writer) throws IOException;
+	
+	/**
+	 * Write this as a shape block of the binary save file format.
+	 * @param writer
+	 */
+	abstract void write(PaintBinaryWriter writer) throws IOException;
+	
+	/**
+	 * @return the smallest Rect containing the geometry of this. Strokes and
+	 * anti-aliasing may paint up to STROKE_MARGIN pixels outside it.
+	 */
+	abstract Rect getBounds();
+	
+	/**
+	 * @return the name of this kind of shape, as in the text save file format
+	 */
+	abstract String getShapeName();
+	
+	/**
+	 * @return this with its stroke simplified, a copy if that changes anything
+	 */
+	PaintCommand simplified(StrokeSimplifier simplifier) {
+		return this;
+	}
+	
+	static final int STROKE_MARGIN = 2;
+	
+	/**
+	 * @return a count that goes up whenever this changes, so whether it has 
+	 * changed since some earlier time is told by comparing counts
+	 */
+	int getChangeCount() {
+		return this.changes;
+	}
+	
+	/**
+	 * Have listener told of each change to this.
+	 */
+	void addListener(PaintCommandListener listener) {
+		LISTENERS.getAndUpdate(this, listeners -> Listeners.with(listeners, listener));
+	}
+	
+	void removeListener(PaintCommandListener listener) {
+		LISTENERS.getAndUpdate(this, listeners -> Listeners.without(listeners, listener));
+	}
+	
+	/**
+	 * Let listeners know this changed. The notification carries the region 
+	 * of the canvas affected, that is, the old and new bounds of the part 
+	 * of this that changed. 
+	 * @param damage
+	 */
+	void changed(Rect damage) {
+		this.changes++;
+		for (PaintCommandListener listener : this.listeners) {
+			listener.commandChanged(this, damage);
+		}
+	}
 	
 	public abstract void execute(GraphicsContext g);
+	
+	/**
+	 * Draw this on g, which has been scaled by scale. When that makes the
+	 * drawing smaller, detail too small to see may be left out.
+	 * @param g
+	 * @param scale
+	 */
+	void execute(GraphicsContext g, double scale) {
+		this.execute(g);
+	}
+	
+	/**
+	 * Draw this as execute(GraphicsContext) would, without JavaFX.
+	 * @param r
+	 */
+	abstract void execute(Raster r);
 }
@@ -0,0 +1,17 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * Told of each change to the PaintCommands it listens to, see
+ * PaintCommand.addListener.
+ *
+ * @author
+ *
+ */
+interface PaintCommandListener {
+	/**
+	 * @param command the command that changed
+	 * @param damage the region of the canvas affected, that is, the old and
+	 * new bounds of the part of command that changed
+	 */
+	void commandChanged(PaintCommand command, Rect damage);
+}
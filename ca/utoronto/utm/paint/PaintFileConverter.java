@@ -0,0 +1,55 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Convert save files between the Version 1.0 text format and the binary
+ * format. The format of the input is detected from its contents, the output
+ * is written in the other format.
+ *
+ * Usage: java ca.utoronto.utm.paint.PaintFileConverter input output
+ *
+ * @author
+ *
+ */
+public class PaintFileConverter {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: PaintFileConverter input output");
+			System.exit(2);
+		}
+		Path input = Paths.get(args[0]), output = Paths.get(args[1]);
+		boolean binary = PaintBinaryFileParser.isBinary(input);
+		PaintModel paintModel = new ColumnarPaintModel(); // no need for a command object per shape
+		String errorMessage = load(input, paintModel);
+		if (!errorMessage.equals("")) {
+			System.err.println(args[0] + ": " + errorMessage);
+			System.exit(1);
+		}
+		if (binary) {
+			paintModel.save(new PrintWriter(Files.newBufferedWriter(output)));
+		} else {
+			paintModel.saveBinary(Files.newOutputStream(output));
+		}
+	}
+
+	/**
+	 * Load the save file at path, in either format, into paintModel.
+	 * @return the error message from the parse, empty if it was successful
+	 */
+	static String load(Path path, PaintModel paintModel) throws IOException {
+		if (PaintBinaryFileParser.isBinary(path)) {
+			PaintBinaryFileParser parser = new PaintBinaryFileParser();
+			parser.parse(path, paintModel);
+			return parser.getErrorMessage();
+		}
+		PaintFileParser parser = new PaintFileParser();
+		parser.parse(path, paintModel);
+		return parser.getErrorMessage();
+	}
+}
@@ -0,0 +1,184 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+/**
+ * Open a save file in the background. The file is parsed on a worker thread,
+ * and the commands it describes are handed to the paint model on the JavaFX
+ * application thread a batch at a time, so the first shapes show up while
+ * the rest of the file is still being read and the UI never waits on the parse.
+ *
+ * Files in either the Version 1.0 text format or the binary format can be
+ * opened, the format is detected from the start of the file. The strokes of
+ * a text file are simplified as they are read, see StrokeSimplifier. Those
+ * of a binary file are kept just as the file has them, so that it can be
+ * saved again by writing only what is edited, see SaveFileLayout.
+ *
+ * Progress is reported as the fraction of the file read so far. Cancelling
+ * the task stops the parse at the next line.
+ *
+ * The value of the task is whether the complete file was successfully parsed,
+ * if not, getErrorMessage() describes the problem.
+ *
+ * @author
+ *
+ */
+class PaintFileLoader extends Task<Boolean> {
+	private static final int BATCH_SIZE = 5000; // most commands handed to the model in one go
+
+	private File file;
+	private PaintModel paintModel; // only touched on the JavaFX application thread
+	private PaintJournal journal = null; // told of the file's commands, if the model is journalled
+	private PaintFileParser parser;
+	private PaintBinaryFileParser binaryParser;
+	private volatile boolean binary = false; // whether the file is in the binary format
+	private volatile SaveFileLayout layout = null; // of a binary file, built as it is read
+	private ConcurrentLinkedQueue<PaintCommand> parsed = new ConcurrentLinkedQueue<PaintCommand>();
+	private AtomicBoolean publishScheduled = new AtomicBoolean(false);
+
+	PaintFileLoader(File file, PaintModel paintModel) {
+		this.file = file;
+		this.paintModel = paintModel;
+		this.parser = new PaintFileParser() {
+			@Override
+			void addCommand(PaintCommand command) {
+				PaintFileLoader.this.parsed(command);
+			}
+		};
+		this.binaryParser = new PaintBinaryFileParser() {
+			@Override
+			void addCommand(PaintCommand command) {
+				PaintFileLoader.this.parsed(command);
+			}
+		};
+		// Not the binary parser: a simplified stroke differs from its block in
+		// the file, so the first save would write the file again from there on
+		this.parser.setSimplifier(StrokeSimplifier.forLoad());
+	}
+
+	/**
+	 * @return the error message resulting from an unsuccessful parse
+	 */
+	public String getErrorMessage() {
+		return this.binary ? this.binaryParser.getErrorMessage() : this.parser.getErrorMessage();
+	}
+
+	/**
+	 * Hand each batch of the file's commands to journal before the model,
+	 * see PaintJournal.opening.
+	 */
+	void setJournal(PaintJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return where the blocks of the file are, so it can be saved
+	 * incrementally, null if it is not a binary file
+	 */
+	SaveFileLayout getLayout() {
+		return this.layout;
+	}
+
+	@Override
+	protected Boolean call() throws IOException {
+		// The parsers hand their commands to parsed, they do not touch a paint model
+		this.binary = PaintBinaryFileParser.isBinary(this.file.toPath());
+		if (this.binary) {
+			this.layout = new SaveFileLayout(this.file.toPath(), StrokeSimplifier.forSave());
+			this.binaryParser.setLayout(this.layout);
+			try (InputStream in = this.open()) {
+				return this.binaryParser.parse(in, null);
+			}
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(this.open()))) {
+			return this.parser.parse(reader, null);
+		}
+	}
+
+	/**
+	 * @return a stream over the file that reports progress as it is read
+	 */
+	private InputStream open() throws IOException {
+		final long size = Math.max(1, this.file.length());
+		return new FilterInputStream(new FileInputStream(this.file)) {
+			private long read = 0;
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					this.read += n;
+					updateProgress(this.read, size);
+				}
+				return n;
+			}
+		};
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		this.parser.cancel();
+		this.binaryParser.cancel();
+		return super.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * Runs on the worker thread, queue the command and make sure a publish is
+	 * on its way to the JavaFX application thread.
+	 */
+	private void parsed(PaintCommand command) {
+		this.parsed.add(command);
+		if (this.publishScheduled.compareAndSet(false, true)) {
+			Platform.runLater(() -> this.publish(BATCH_SIZE));
+		}
+	}
+
+	/**
+	 * Runs on the JavaFX application thread, move up to max parsed commands
+	 * into the model as one update. If more are waiting, come back on a later
+	 * pulse so rendering and input are not starved.
+	 */
+	private void publish(int max) {
+		this.publishScheduled.set(false);
+		if (this.isCancelled()) {
+			this.parsed.clear();
+			return;
+		}
+		ArrayList<PaintCommand> batch = new ArrayList<PaintCommand>(Math.min(max, BATCH_SIZE));
+		PaintCommand command;
+		for (int i = 0; i < max && (command = this.parsed.poll()) != null; i++) {
+			batch.add(command);
+		}
+		if (this.journal != null) {
+			this.journal.loaded(batch);
+		}
+		this.paintModel.addCommands(batch);
+		if (!this.parsed.isEmpty() && this.publishScheduled.compareAndSet(false, true)) {
+			Platform.runLater(() -> this.publish(BATCH_SIZE));
+		}
+	}
+
+	@Override
+	protected void succeeded() {
+		this.publish(Integer.MAX_VALUE); // whatever is still queued
+		super.succeeded();
+	}
+
+	@Override
+	protected void failed() {
+		this.publish(Integer.MAX_VALUE); // keep what was read before the failure
+		super.failed();
+	}
+}
@@ -1,8 +1,13 @@
 package ca.utoronto.utm.paint;
 
 import java.io.BufferedReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import javafx.scene.paint.Color;
 /**
@@ -20,45 +25,66 @@ import javafx.scene.paint.Color;
 public class PaintFileParser {
 	private int lineNumber = 0; // the current line being parsed
 	private String errorMessage =""; // error encountered during parse
+	private int errorLine = 0; // the line, and description, of the error 
+	private String errorDescription = "";
 	private PaintModel paintModel; 
+	private volatile boolean cancelled = false; // set from another thread to abandon the parse
+	private StrokeSimplifier simplifier = null; // applied to each squiggle and polyline, if set
+	private ParseEvent event = null; // for the parse in progress, if Flight Recorder wants it
 	
-	/**
-	 * Below are Patterns used in parsing 
-	 */
-	private Pattern pFileStart=Pattern.compile("^PaintSaveFileVersion1.0$", Pattern.COMMENTS | Pattern.MULTILINE);
-	
-	private Pattern pCircleStart=Pattern.compile("^Circle$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pColor=Pattern.compile("^color:([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5]),([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5]),([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])$", Pattern.COMMENTS | Pattern.MULTILINE);
-	// check to make sure the given number is within the accepted RGB range between each comma
-	private Pattern pFill=Pattern.compile("^filled:((true)|(false))$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pCentre=Pattern.compile("^center:[(][\\d]+,[\\d]+[)]$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pRadius=Pattern.compile("^radius:[\\d]+$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pCircleEnd=Pattern.compile("^EndCircle$", Pattern.COMMENTS | Pattern.MULTILINE);
+	private static final boolean TRACE = Boolean.getBoolean("paint.parse.trace"); // print each line and state to System.err
+	private static final ParseTimings TIMINGS = ParseTimings.configured(); // null unless paint.parse.timing is true
 	
-	private Pattern pRectangleStart=Pattern.compile("^Rectangle$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pp1=Pattern.compile("^p1:[(][\\d]+,[\\d]+[)]$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pp2=Pattern.compile("^p2:[(][\\d]+,[\\d]+[)]$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pRectangleEnd=Pattern.compile("^EndRectangle$", Pattern.COMMENTS | Pattern.MULTILINE);
+	private int state = 0; // the current state of the parse
+	private PaintFileScanner scanner = new PaintFileScanner(); 
 	
-	private Pattern pSquiggleStart=Pattern.compile("^Squiggle$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pPoints=Pattern.compile("^points$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pPoint=Pattern.compile("^point:[(][\\d]+,[\\d]+[)]$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pEndPoints=Pattern.compile("^endpoints$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pSquiggleEnd=Pattern.compile("^EndSquiggle$", Pattern.COMMENTS | Pattern.MULTILINE);
-	
-	private Pattern pPolylineStart=Pattern.compile("^Polyline$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pPolylineEnd=Pattern.compile("^EndPolyline$", Pattern.COMMENTS | Pattern.MULTILINE);
-	private Pattern pblank=Pattern.compile("^[\\s]*[\\t]*[\\n]*$");
-	private Pattern pFileEnd=Pattern.compile("^EndPaintSaveFile$", Pattern.COMMENTS | Pattern.MULTILINE);
+	// During the parse, we will be building one of the 
+	// following commands. As we parse the file, we modify 
+	// the appropriate command.
+	private CircleCommand circleCommand;
+	private RectangleCommand rectangleCommand;
+	private SquiggleCommand squiggleCommand;
+	private PolyLineCommand polylineCommand;
 
-	
 	/**
 	 * Store an appropriate error message in this, including 
 	 * lineNumber where the error occurred.
 	 * @param mesg
 	 */
 	private void error(String mesg){
-		this.errorMessage = "Error in line "+lineNumber+" "+mesg;
+		this.error(this.lineNumber, mesg);
+	}
+	
+	private void error(int line, String mesg){
+		this.errorLine = line;
+		this.errorDescription = mesg;
+		this.errorMessage = "Error in line "+line+" "+mesg;
+	}
+	
+	/**
+	 * Shift the line numbers recorded by this by lines. Used when this
+	 * parsed a piece of a file that started after line 1.
+	 * @param lines the number of lines in the file before the piece
+	 */
+	void offsetLineNumbers(int lines){
+		this.lineNumber += lines;
+		if(!this.errorMessage.equals("")) {
+			this.error(this.errorLine + lines, this.errorDescription);
+		}
+	}
+	
+	/**
+	 * @return the number of lines parsed so far 
+	 */
+	int getLineNumber(){
+		return this.lineNumber;
+	}
+	
+	/**
+	 * @return the state the parse finished in
+	 */
+	int getState(){
+		return this.state;
 	}
 	
 	/**
@@ -69,6 +95,39 @@ public class PaintFileParser {
 		return this.errorMessage;
 	}
 	
+	/**
+	 * Ask a parse running on another thread to stop at the next line.
+	 * The abandoned parse returns false.
+	 */
+	public void cancel(){
+		this.cancelled = true;
+	}
+	
+	/**
+	 * Simplify each squiggle and polyline as it is parsed.
+	 * @param simplifier null to keep them as they are in the file
+	 */
+	void setSimplifier(StrokeSimplifier simplifier){
+		this.simplifier = simplifier;
+	}
+	
+	/**
+	 * Called as each command is completed during the parse. By default
+	 * the command is added to the paint model.
+	 * @param command
+	 */
+	void addCommand(PaintCommand command){
+		this.paintModel.addCommand(command);
+	}
+	
+	/**
+	 * Called with each command as the parse completes it.
+	 */
+	private void completed(PaintCommand command){
+		if(this.event!=null) this.event.count(command);
+		this.addCommand(command);
+	}
+	
 	/**
 	 * Parse the inputStream as a Paint Save File Format file.
 	 * The result of the parse is stored as an ArrayList of Paint command.
@@ -76,315 +135,476 @@ public class PaintFileParser {
 	 * set, with a useful error message.
 	 * 
 	 * @param inputStream the open file to parse
-	 * @param paintModel the paint model to add the commands to
+	 * @param paintModel the paint model to add the commands to, 
+	 * null if addCommand is overridden to send them elsewhere
 	 * @return whether the complete file was successfully parsed
 	 */
 	public boolean parse(BufferedReader inputStream, PaintModel paintModel) {
+		this.startEvent(null);
+		boolean result = this.parseLines(inputStream, paintModel);
+		this.finishEvent(result);
+		return result;
+	}
+	
+	private boolean parseLines(BufferedReader inputStream, PaintModel paintModel) {
 		this.paintModel = paintModel;
 		this.errorMessage="";
-		
-		// During the parse, we will be building one of the 
-		// following commands. As we parse the file, we modify 
-		// the appropriate command.
-		
-		CircleCommand circleCommand = new CircleCommand(new Point(0, 0), 0); 
-		RectangleCommand rectangleCommand = new RectangleCommand(new Point(0, 0), new Point(0, 0));
-		SquiggleCommand squiggleCommand = new SquiggleCommand();
-		PolyLineCommand polylineCommand = new PolyLineCommand();
+		this.newCommands();
 	
+		this.beginUpdate();
 		try {	
-			int state=0; Matcher m; String l;
+			String l;
 			
+			this.state=0;
 			this.lineNumber=0;
 			while ((l = inputStream.readLine()) != null) {
 				this.lineNumber++;
-				System.out.println(lineNumber+" "+l+" "+state);
-				m=pblank.matcher(l);
-				if(!(m.matches())) {
-					l = l.replaceAll("\\s+","").replaceAll("\\n+", "").replaceAll("\\t+", "");
-					switch(state){
-						case 0:
-							m=pFileStart.matcher(l);
-							if(m.matches()){
-								state=1;
-								break;
-							}
-							else if (l.strip().equals("\n")) {
-								state = 0;
-								break;
-							}
-							error("Expected Start of Paint Save File");
-							return false;
-						case 1: // Looking for the start of a new object or end of the save file
-							m=pCircleStart.matcher(l);
-							if(m.matches()){
-								state=2; 
-								break;
-							}
-							else if (l.strip().equals("\n")) {
-								state = 1;
-								break;
-							}
-							m=pRectangleStart.matcher(l);
-							if(m.matches()) {
-								state = 7;
-								break;
-							}
-							m=pSquiggleStart.matcher(l);
-							if(m.matches()) {
-								state = 12;
-								break;
-							}
-							m=pPolylineStart.matcher(l);
-							if(m.matches()) {
-								state = 17;
-								break;
-							}
-							m=pFileEnd.matcher(l);
-							if(m.matches()) {
-								state= 22;
-								break;
-							}
-							error("Expected start of shape object or end of file");
-							return false;
-				
-						case 2: //Looking to see if the current line is a circle color (All other cases involving color work similarly)
-							m=pColor.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":"); //["color", "r,g,b"]
-								String[] tempS2 = tempS1[1].split(","); //["rValue", "gValue", "bValue"]
-								// This will always work as the regex pattern ensure the string always has the right number of values and that they exist
-								int r = Integer.parseInt(tempS2[0]);
-								int g = Integer.parseInt(tempS2[1]);
-								int b = Integer.parseInt(tempS2[2]);
-								circleCommand.setColor(Color.rgb(r, g, b));
-								state = 3;
-								break;
-							}
-							error("Expected proper color formatting");
-							return false;
-						case 3: //Looking to see if the current line is a circle fill argument
-							m=pFill.matcher(l);
-							if(m.matches()) {
-								String[] tempS = l.split(":"); //["filled", "true|false"] 
-								circleCommand.setFill(Boolean.parseBoolean(tempS[1]));
-								state = 4;
-								break;
-							}
-							error("Expected proper fill formatting");
-							return false;
-						case 4: //Looking to see if the current line is a circle centre (All point object cases work similarly)
-							m=pCentre.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].substring(1, tempS1[1].length() - 1).split(",");
-								circleCommand.setCentre(new Point(Integer.parseInt(tempS2[0]), Integer.parseInt(tempS2[1])));
-								state = 5;
-								break;
-							}
-							error("Expected proper centre point formatting");
-							return false;
-						case 5: //Looking to see if the current line is a circle radius
-							m=pRadius.matcher(l);
-							if (m.matches()) {
-								String[] tempS = l.split(":");
-								circleCommand.setRadius(Integer.parseInt(tempS[1]));
-								state = 6;
-								break;
-							}
-							error("Expected proper radius formatting");
-							return false;
-						case 6:  //Looking to see if the current line is the end of the current circle object
-							m=pCircleEnd.matcher(l);
-							if(m.matches()) {
-								this.paintModel.addCommand(circleCommand);
-								circleCommand = new CircleCommand(new Point(0, 0), 0);
-								state = 1;
-								break;
-							}
-							error("Expected end of circle object");
-							return false;
-						case 7:  //Looking to see if the current line is a rectangle color
-							m=pColor.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].split(",");
-								int r = Integer.parseInt(tempS2[0]);
-								int g = Integer.parseInt(tempS2[1]);
-								int b = Integer.parseInt(tempS2[2]);
-								rectangleCommand.setColor(Color.rgb(r, g, b));
-								state = 8;
-								break;
-							}
-							error("Expected proper color formatting");
-							return false;
-						case 8:  //Looking to see if the current line is a rectangle fill argument
-							m=pFill.matcher(l);
-							if(m.matches()) {
-								String[] tempS = l.split(":");
-								rectangleCommand.setFill(Boolean.parseBoolean(tempS[1]));
-								state = 9;
-								break;
-							}
-							error("Expected proper fill formatting");
-							return false;
-						case 9:  //Looking to see if the current line is a rectangle point p1
-							m=pp1.matcher(l);
-							if(m.matches()){
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].substring(1, tempS1[1].length() - 1).split(",");
-								rectangleCommand.setP1(new Point(Integer.parseInt(tempS2[0]), Integer.parseInt(tempS2[1])));
-								state = 10;
-								break;
-							}
-							error("Expected proper p1 formatting");
-							return false;
-						case 10:   //Looking to see if the current line is a rectangle point p2
-							m=pp2.matcher(l);
-							if(m.matches()){
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].substring(1, tempS1[1].length() - 1).split(",");
-								rectangleCommand.setP2(new Point(Integer.parseInt(tempS2[0]), Integer.parseInt(tempS2[1])));
-								state = 11;
-								break;
-							}
-							error("Expected proper p2 formatting");
-							return false;
-						case 11:  //Looking to see if the current line is the end of the current rectangle object
-							m=pRectangleEnd.matcher(l);
-							if(m.matches()) {
-								this.paintModel.addCommand(rectangleCommand);
-								rectangleCommand = new RectangleCommand(new Point(0, 0), new Point(0, 0));
-								state = 1;
-								break;
-							}
-							error("Expected end of rectangle object");
-							return false;
-						case 12:  //Looking to see if the current line is a squiggle color
-							m=pColor.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].split(",");
-								int r = Integer.parseInt(tempS2[0]);
-								int g = Integer.parseInt(tempS2[1]);
-								int b = Integer.parseInt(tempS2[2]);
-								squiggleCommand.setColor(Color.rgb(r, g, b));
-								state = 13;
-								break;
-							}
-							error("Expected proper color formatting");
-							return false;
-						case 13:  //Looking to see if the current line is a squiggle fill
-							m=pFill.matcher(l);
-							if(m.matches()) {
-								String[] tempS = l.split(":");
-								squiggleCommand.setFill(Boolean.parseBoolean(tempS[1]));
-								state = 14;
-								break;
-							}
-							error("Expected proper fill formatting");
-							return false;
-						case 14: //Looking to see if the current line is the start of a points list
-							m=pPoints.matcher(l);
-							if(m.matches()) {
-								state = 15;
-								break;
-							}
-							error("Expected proper color formatting");
-							return false;
-						case 15: //Looking to see if the current line is a squiggle point or the end of the points list
-							m=pPoint.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].substring(1, tempS1[1].length() - 1).split(",");
-								squiggleCommand.add(new Point(Integer.parseInt(tempS2[0]), Integer.parseInt(tempS2[1])));
-								break;
-							}
-							m=pEndPoints.matcher(l);
-							if(m.matches()) {
-								state = 16;
-								break;
-							}
-							error("Expected proper point or end of point list");
-							return false;
-						case 16: //Looking to see if the current line is the end of the current squiggle object
-							m=pSquiggleEnd.matcher(l);
-							if(m.matches()) {
-								this.paintModel.addCommand(squiggleCommand);
-								squiggleCommand = new SquiggleCommand();
-								state = 1;
-								break;
-							}
-							error("Expected end of squiggle object");
-							return false;
-						case 17: //Looking to see if the current line is a color
-							m=pColor.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].split(",");
-								int r = Integer.parseInt(tempS2[0]);
-								int g = Integer.parseInt(tempS2[1]);
-								int b = Integer.parseInt(tempS2[2]);
-								polylineCommand.setColor(Color.rgb(r, g, b));
-								state = 18;
-								break;
-							}
-							error("Expected proper color format");
-							return false;
-						case 18://Looking to see if the current line is a fill argument
-							m=pFill.matcher(l);
-							if(m.matches()) {
-								String[] tempS = l.split(":");
-								polylineCommand.setFill(Boolean.parseBoolean(tempS[1]));
-								state = 19;
-								break;
-							}
-							error("Expected proper fill format");
-							return false;
-						case 19://Looking to see if the current line starts the list of points for this polyline
-							m=pPoints.matcher(l);
-							if(m.matches()) {
-								state = 20;
-								break;
-							}
-							error("Expected proper start of point list");
-							return false;
-						case 20://Looking to see if the current line is a polyline point
-							m=pPoint.matcher(l);
-							if(m.matches()) {
-								String[] tempS1 = l.split(":");
-								String[] tempS2 = tempS1[1].substring(1, tempS1[1].length() - 1).split(",");
-								polylineCommand.add(new Point(Integer.parseInt(tempS2[0]), Integer.parseInt(tempS2[1])));
-								break;
-							}
-							m=pEndPoints.matcher(l);
-							if(m.matches()) {
-								state = 21;
-								break;
-							}
-							error("Expected proper point or end of point list");
-							return false;
-						case 21://Looking to see if the current line is a color
-							m=pPolylineEnd.matcher(l);
-							if(m.matches()) {
-								this.paintModel.addCommand(polylineCommand);
-								polylineCommand = new PolyLineCommand();
-								state = 1;
-								break;
-							}
-							error("Expected proper end of polyline object");
-							return false;
-						case 22://Looking to see if any other lines exist past the file end
-							error("Extra lines past expected end of file");
-							return false;
-							
-								
-						}
-					}
+				if(this.cancelled) {
+					error("Parse cancelled");
+					return false;
+				}
+				if(!this.step(l)) {
+					return false;
+				}
+			}
+		}  catch (Exception e){
+			error("Unexpected error, please verify integrity of file");
+		} finally {
+			this.endUpdate();
+		}
+		return true;
+	}
+	
+	/**
+	 * The commands of a parse are added to the paint model as one batch, so
+	 * listeners hear about the whole file once. A parser that is not adding 
+	 * to a paint model, see addCommand, has none.
+	 */
+	private void beginUpdate(){
+		if(this.paintModel!=null) this.paintModel.beginUpdate();
+	}
+	
+	private void endUpdate(){
+		if(this.paintModel!=null) this.paintModel.endUpdate();
+	}
+	
+	/**
+	 * Parse the file at path as a Paint Save File Format file.
+	 * The file is memory mapped and its bytes scanned in place, without 
+	 * decoding them into a String for each line. The outcome is the same 
+	 * as for parse(BufferedReader, PaintModel).
+	 * 
+	 * @param path the file to parse
+	 * @param paintModel the paint model to add the commands to
+	 * @return whether the complete file was successfully parsed
+	 * @throws IOException if the file can not be opened
+	 */
+	public boolean parse(Path path, PaintModel paintModel) throws IOException {
+		this.paintModel = paintModel;
+		this.startEvent(path);
+		boolean result = false;
+		try {
+			MappedByteBuffer buffer = map(path);
+			if(buffer==null) { // too big to map in one piece
+				if(this.event!=null) this.event.bytes = Files.size(path);
+				try (BufferedReader inputStream = Files.newBufferedReader(path)) {
+					return result = this.parseLines(inputStream, paintModel);
+				}
+			}
+			if(this.event!=null) this.event.bytes = buffer.limit();
+			this.beginUpdate();
+			try {
+				return result = this.parse(buffer, 0, buffer.limit(), 0, 0);
+			} finally {
+				this.endUpdate();
+			}
+		} finally {
+			this.finishEvent(result);
+		}
+	}
+	
+	/**
+	 * Start the Flight Recorder event for a parse, if one is wanted.
+	 * @param path the file being parsed, null if not known
+	 */
+	private void startEvent(Path path){
+		ParseEvent event = new ParseEvent();
+		if(!event.isEnabled()) {
+			this.event = null;
+			return;
+		}
+		event.file = path==null ? null : path.toString();
+		event.format = "text";
+		event.begin();
+		this.event = event;
+	}
+	
+	private void finishEvent(boolean result){
+		if(this.event==null) return;
+		this.event.lines = this.lineNumber;
+		this.event.finish(result, this.errorMessage);
+		this.event = null;
+	}
+	
+	/**
+	 * Map the whole of the file at path into memory, read only.
+	 * @return the mapping, or null if the file is too large to map in one piece
+	 */
+	static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) return null;
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+	
+	/**
+	 * Parse the lines in buffer[from,to) as part of a Paint Save File Format file.
+	 * Used to parse a whole file held in memory, or a piece of one. 
+	 * 
+	 * @param buffer holds the bytes of the file
+	 * @param from the start of the first line to parse
+	 * @param to the end of the lines to parse
+	 * @param state the state to start in, 0 at the start of a file, 1 at the start of a shape
+	 * @param lineNumber the number of lines before from
+	 * @return whether the lines were successfully parsed
+	 */
+	boolean parse(ByteBuffer buffer, int from, int to, int state, int lineNumber) {
+		this.errorMessage="";
+		this.newCommands();
+		
+		AsciiLine line = new AsciiLine(buffer);
+		try {
+			this.state=state;
+			this.lineNumber=lineNumber;
+			int pos = from;
+			while (pos < to) {
+				int eol = AsciiLine.lineEnd(buffer, pos, to);
+				line.set(pos, eol);
+				this.lineNumber++;
+				if(this.cancelled) {
+					error("Parse cancelled");
+					return false;
 				}
+				if(!this.step(line)) {
+					return false;
+				}
+				pos = AsciiLine.nextLine(buffer, eol, to);
+			}
 		}  catch (Exception e){
 			error("Unexpected error, please verify integrity of file");
 		}
 		return true;
 	}
+	
+	/**
+	 * Start fresh versions of each of the commands that can be built during a parse.
+	 */
+	private void newCommands() {
+		this.circleCommand = new CircleCommand(new Point(0, 0), 0); 
+		this.rectangleCommand = new RectangleCommand(new Point(0, 0), new Point(0, 0));
+		this.squiggleCommand = new SquiggleCommand();
+		this.polylineCommand = new PolyLineCommand();
+	}
+	
+	/**
+	 * Scan a color line, color:r,g,b 
+	 * @return the color, or null if the line is not a properly formatted color
+	 */
+	private Color color() {
+		PaintFileScanner s = this.scanner;
+		if(!s.keyword("color:")) return null;
+		int r = s.colorComponent();
+		if(r<0 || !s.keyword(",")) return null;
+		int g = s.colorComponent();
+		if(g<0 || !s.keyword(",")) return null;
+		int b = s.colorComponent();
+		if(b<0 || !s.atEnd()) return null;
+		return Color.rgb(r, g, b);
+	}
+	
+	/**
+	 * Scan a fill line, filled:true or filled:false
+	 * @return 1 for true, 0 for false, -1 if the line is not a properly formatted fill
+	 */
+	private int fill() {
+		PaintFileScanner s = this.scanner;
+		if(!s.keyword("filled:")) return -1;
+		int value;
+		if(s.keyword("t")) value = s.keyword("rue") ? 1 : -1; // decide on the first letter, a failed keyword consumes input
+		else value = s.keyword("false") ? 0 : -1;
+		if(value<0 || !s.atEnd()) return -1;
+		return value;
+	}
+	
+	/**
+	 * Scan a line consisting of the given label followed by a point, for example center:(x,y) 
+	 * @return the point, or null if the line is not properly formatted
+	 */
+	private Point labelledPoint(String label) {
+		PaintFileScanner s = this.scanner;
+		s.rewind();
+		if(!s.keyword(label)) return null;
+		Point p = s.point();
+		if(p==null || !s.atEnd()) return null;
+		return p;
+	}
+	
+	/**
+	 * Run one line of the file through the state machine, tracing and
+	 * timing it if asked to by the paint.parse.trace and paint.parse.timing
+	 * system properties. Both are read once, so when they are off the
+	 * checks here are compiled away.
+	 * 
+	 * @param l the line to parse
+	 * @return whether the line was accepted, if not, this.errorMessage is set
+	 */
+	private boolean step(CharSequence l) {
+		if(TRACE) System.err.println(this.lineNumber+" "+l+" "+this.state);
+		if(TIMINGS==null) return this.parseLine(l);
+		int before = this.state;
+		long start = System.nanoTime();
+		boolean accepted = this.parseLine(l);
+		TIMINGS.record(before, System.nanoTime() - start);
+		return accepted;
+	}
+	
+	/**
+	 * Run one line of the file through the state machine. 
+	 * 
+	 * @param l the line to parse
+	 * @return whether the line was accepted, if not, this.errorMessage is set
+	 */
+	private boolean parseLine(CharSequence l) {
+		PaintFileScanner s = this.scanner;
+		s.reset(l);
+		if(s.isBlank()) {
+			return true;
+		}
+		s.rewind();
+		Color color; Point p; int fill;
+		switch(state){
+			case 0:
+				if(s.matches("PaintSaveFileVersion1.0")){
+					state=1;
+					break;
+				}
+				error("Expected Start of Paint Save File");
+				return false;
+			case 1: // Looking for the start of a new object or end of the save file
+				if(s.matches("Circle")){
+					state=2; 
+					break;
+				}
+				if(s.matches("Rectangle")) {
+					state = 7;
+					break;
+				}
+				if(s.matches("Squiggle")) {
+					state = 12;
+					break;
+				}
+				if(s.matches("Polyline")) {
+					state = 17;
+					break;
+				}
+				if(s.matches("EndPaintSaveFile")) {
+					state= 22;
+					break;
+				}
+				error("Expected start of shape object or end of file");
+				return false;
+	
+			case 2: //Looking to see if the current line is a circle color (All other cases involving color work similarly)
+				color=this.color();
+				if(color!=null) {
+					circleCommand.setColor(color);
+					state = 3;
+					break;
+				}
+				error("Expected proper color formatting");
+				return false;
+			case 3: //Looking to see if the current line is a circle fill argument
+				fill=this.fill();
+				if(fill>=0) {
+					circleCommand.setFill(fill==1);
+					state = 4;
+					break;
+				}
+				error("Expected proper fill formatting");
+				return false;
+			case 4: //Looking to see if the current line is a circle centre (All point object cases work similarly)
+				p=this.labelledPoint("center:");
+				if(p!=null) {
+					circleCommand.setCentre(p);
+					state = 5;
+					break;
+				}
+				error("Expected proper centre point formatting");
+				return false;
+			case 5: //Looking to see if the current line is a circle radius
+				int radius;
+				if (s.keyword("radius:") && (radius=s.number())>=0 && s.atEnd()) {
+					circleCommand.setRadius(radius);
+					state = 6;
+					break;
+				}
+				error("Expected proper radius formatting");
+				return false;
+			case 6:  //Looking to see if the current line is the end of the current circle object
+				if(s.matches("EndCircle")) {
+					this.completed(circleCommand);
+					circleCommand = new CircleCommand(new Point(0, 0), 0);
+					state = 1;
+					break;
+				}
+				error("Expected end of circle object");
+				return false;
+			case 7:  //Looking to see if the current line is a rectangle color
+				color=this.color();
+				if(color!=null) {
+					rectangleCommand.setColor(color);
+					state = 8;
+					break;
+				}
+				error("Expected proper color formatting");
+				return false;
+			case 8:  //Looking to see if the current line is a rectangle fill argument
+				fill=this.fill();
+				if(fill>=0) {
+					rectangleCommand.setFill(fill==1);
+					state = 9;
+					break;
+				}
+				error("Expected proper fill formatting");
+				return false;
+			case 9:  //Looking to see if the current line is a rectangle point p1
+				p=this.labelledPoint("p1:");
+				if(p!=null){
+					rectangleCommand.setP1(p);
+					state = 10;
+					break;
+				}
+				error("Expected proper p1 formatting");
+				return false;
+			case 10:   //Looking to see if the current line is a rectangle point p2
+				p=this.labelledPoint("p2:");
+				if(p!=null){
+					rectangleCommand.setP2(p);
+					state = 11;
+					break;
+				}
+				error("Expected proper p2 formatting");
+				return false;
+			case 11:  //Looking to see if the current line is the end of the current rectangle object
+				if(s.matches("EndRectangle")) {
+					this.completed(rectangleCommand);
+					rectangleCommand = new RectangleCommand(new Point(0, 0), new Point(0, 0));
+					state = 1;
+					break;
+				}
+				error("Expected end of rectangle object");
+				return false;
+			case 12:  //Looking to see if the current line is a squiggle color
+				color=this.color();
+				if(color!=null) {
+					squiggleCommand.setColor(color);
+					state = 13;
+					break;
+				}
+				error("Expected proper color formatting");
+				return false;
+			case 13:  //Looking to see if the current line is a squiggle fill
+				fill=this.fill();
+				if(fill>=0) {
+					squiggleCommand.setFill(fill==1);
+					state = 14;
+					break;
+				}
+				error("Expected proper fill formatting");
+				return false;
+			case 14: //Looking to see if the current line is the start of a points list
+				if(s.matches("points")) {
+					state = 15;
+					break;
+				}
+				error("Expected proper color formatting");
+				return false;
+			case 15: //Looking to see if the current line is a squiggle point or the end of the points list
+				p=this.labelledPoint("point:");
+				if(p!=null) {
+					squiggleCommand.add(p);
+					break;
+				}
+				if(s.matches("endpoints")) {
+					state = 16;
+					break;
+				}
+				error("Expected proper point or end of point list");
+				return false;
+			case 16: //Looking to see if the current line is the end of the current squiggle object
+				if(s.matches("EndSquiggle")) {
+					if(this.simplifier != null) squiggleCommand.simplify(this.simplifier);
+					squiggleCommand.getPointBuffer().trimToSize();
+					this.completed(squiggleCommand);
+					squiggleCommand = new SquiggleCommand();
+					state = 1;
+					break;
+				}
+				error("Expected end of squiggle object");
+				return false;
+			case 17: //Looking to see if the current line is a color
+				color=this.color();
+				if(color!=null) {
+					polylineCommand.setColor(color);
+					state = 18;
+					break;
+				}
+				error("Expected proper color format");
+				return false;
+			case 18://Looking to see if the current line is a fill argument
+				fill=this.fill();
+				if(fill>=0) {
+					polylineCommand.setFill(fill==1);
+					state = 19;
+					break;
+				}
+				error("Expected proper fill format");
+				return false;
+			case 19://Looking to see if the current line starts the list of points for this polyline
+				if(s.matches("points")) {
+					state = 20;
+					break;
+				}
+				error("Expected proper start of point list");
+				return false;
+			case 20://Looking to see if the current line is a polyline point
+				p=this.labelledPoint("point:");
+				if(p!=null) {
+					polylineCommand.add(p);
+					break;
+				}
+				if(s.matches("endpoints")) {
+					state = 21;
+					break;
+				}
+				error("Expected proper point or end of point list");
+				return false;
+			case 21://Looking to see if the current line is a color
+				if(s.matches("EndPolyline")) {
+					if(this.simplifier != null) polylineCommand.simplify(this.simplifier);
+					polylineCommand.getPointBuffer().trimToSize();
+					this.completed(polylineCommand);
+					polylineCommand = new PolyLineCommand();
+					state = 1;
+					break;
+				}
+				error("Expected proper end of polyline object");
+				return false;
+			case 22://Looking to see if any other lines exist past the file end
+				error("Extra lines past expected end of file");
+				return false;
+		}
+		return true;
+	}
 }
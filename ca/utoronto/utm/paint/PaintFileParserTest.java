@@ -3,9 +3,19 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.awt.geom.Line2D;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +30,13 @@ public class PaintFileParserTest {
 		boolean retVal = parser.parse(lineInput, paintModel);
 		String errorMessage = parser.getErrorMessage();
 		// System.out.println(fileName+" "+ errorMessage);
+		
+		// The memory mapped parse must agree with the reader
+		PaintFileParser mappedParser = new PaintFileParser();
+		PaintModel mappedPaintModel = new PaintModel();
+		assertEquals(fileName + ": Mapped parse return value", retVal, mappedParser.parse(Paths.get(fileName), mappedPaintModel));
+		assertEquals(fileName + ": Mapped parse error message", errorMessage, mappedParser.getErrorMessage());
+		assertEquals(fileName + ": Mapped parse commands", report(paintModel), report(mappedPaintModel));
 
 		if (expectedErrorMessage.equals("")) {
 			assertTrue(fileName + ": Returns true for basic file with no spaces", retVal);
@@ -43,6 +60,35 @@ public class PaintFileParserTest {
 		lineInput.close();
 	}
 
+	/**
+	 * @return the model as it would be saved
+	 */
+	private String report(PaintModel paintModel) {
+		StringWriter s = new StringWriter();
+		paintModel.save(new PrintWriter(s));
+		return s.toString();
+	}
+
+	/**
+	 * Parse fileName in chunks as small as possible, and check the outcome is the 
+	 * same as for a sequential parse.
+	 */
+	private void doParallelParserTestCase(String fileName) throws IOException {
+		BufferedReader lineInput = new BufferedReader(new FileReader(fileName));
+		PaintFileParser parser = new PaintFileParser();
+		PaintModel paintModel = new PaintModel();
+		boolean retVal = parser.parse(lineInput, paintModel);
+		lineInput.close();
+
+		ParallelPaintFileParser parallelParser = new ParallelPaintFileParser(ForkJoinPool.commonPool(), 1);
+		PaintModel parallelPaintModel = new PaintModel();
+		boolean parallelRetVal = parallelParser.parse(Paths.get(fileName), parallelPaintModel);
+
+		assertEquals(fileName + ": Return value", retVal, parallelRetVal);
+		assertEquals(fileName + ": Error Message", parser.getErrorMessage(), parallelParser.getErrorMessage());
+		assertEquals(fileName + ": Commands", report(paintModel), report(parallelPaintModel));
+	}
+
 	@Test
 	public void parserTest1() throws IOException {
 		this.doParserTestCase("samplefiles/basic_nospace.txt", "Returns true for basic file with no spaces", "");
@@ -130,5 +176,123 @@ public class PaintFileParserTest {
 		this.doParserTestCase("samplefiles/multishapes_fail_missingendshape.txt",
 				"Returns false for multiple shapes file with incorrect end shape", "Error in line 13 ");
 	}
-}
 
+	@Test
+	public void parallelParserTest() throws IOException {
+		for (File file : new File("samplefiles").listFiles()) {
+			this.doParallelParserTestCase(file.getPath());
+		}
+	}
+
+	@Test
+	public void negativeCoordinatesTest() throws IOException {
+		// As drawn on a panned or zoomed canvas
+		PaintModel paintModel = new PaintModel();
+		paintModel.addCommand(new CircleCommand(new Point(-20, 30), 5));
+		paintModel.addCommand(new RectangleCommand(new Point(-7, -8), new Point(4, -1)));
+		SquiggleCommand squiggle = new SquiggleCommand();
+		squiggle.add(-1, -2);
+		squiggle.add(3, -4);
+		paintModel.addCommand(squiggle);
+		PolyLineCommand polyline = new PolyLineCommand();
+		polyline.add(-100, 0);
+		polyline.add(0, -100);
+		paintModel.addCommand(polyline);
+		Path file = Files.createTempFile("negative", ".txt");
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+			paintModel.save(writer);
+		}
+		assertTrue("Written as negative", new String(Files.readAllBytes(file)).contains("center:(-20,30)"));
+
+		this.doParserTestCase(file.toString(), "Returns true for file with negative coordinates", "");
+		PaintModel readModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(file, readModel));
+		assertEquals("Round trip", report(paintModel), report(readModel));
+		assertEquals("Minus only before a number", null, point("( -, 3)"));
+	}
+
+	/**
+	 * @return the point scanned from line
+	 */
+	private Point point(String line) {
+		PaintFileScanner s = new PaintFileScanner();
+		s.reset(line);
+		return s.point();
+	}
+
+	@Test
+	public void binaryFormatTest() throws IOException {
+		for (File file : new File("samplefiles").listFiles()) {
+			PaintFileParser parser = new PaintFileParser();
+			PaintModel paintModel = new PaintModel();
+			if (!parser.parse(file.toPath(), paintModel)) continue;
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			paintModel.saveBinary(out);
+			PaintBinaryFileParser binaryParser = new PaintBinaryFileParser();
+			PaintModel binaryPaintModel = new PaintModel();
+			boolean retVal = binaryParser.parse(new ByteArrayInputStream(out.toByteArray()), binaryPaintModel);
+
+			assertTrue(file + ": Binary parse returns true", retVal);
+			assertEquals(file + ": No error message", "", binaryParser.getErrorMessage());
+			assertEquals(file + ": Commands", report(paintModel), report(binaryPaintModel));
+		}
+	}
+
+	@Test
+	public void binaryFormatFailTest() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		paintModel.saveBinary(out);
+		byte[] bytes = out.toByteArray();
+		bytes[bytes.length - 1] = 9; // not a shape type
+
+		PaintBinaryFileParser binaryParser = new PaintBinaryFileParser();
+		assertFalse(binaryParser.parse(new ByteArrayInputStream(bytes), paintModel));
+		assertEquals("Error at byte 5 Unknown shape type 9", binaryParser.getErrorMessage());
+	}
+
+	private SquiggleCommand squiggle(PaintModel paintModel) {
+		for (PaintCommand c : paintModel.getCommandsIn(new Rect(0, 0, 1000, 1000))) {
+			if (c instanceof SquiggleCommand) return (SquiggleCommand) c;
+		}
+		return null;
+	}
+
+	@Test
+	public void simplifyTest() throws IOException {
+		Path path = new File("samplefiles/multishapes.txt").toPath();
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(path, paintModel));
+		PointBuffer original = squiggle(paintModel).getPointBuffer();
+
+		PaintFileParser parser = new PaintFileParser();
+		parser.setSimplifier(new StrokeSimplifier(1));
+		PaintModel simplifiedModel = new PaintModel();
+		assertTrue(parser.parse(path, simplifiedModel));
+		PointBuffer simplified = squiggle(simplifiedModel).getPointBuffer();
+
+		assertTrue("Fewer points", simplified.size() < original.size());
+		assertEquals("First point kept", original.getX(0), simplified.getX(0));
+		assertEquals("First point kept", original.getY(0), simplified.getY(0));
+		assertEquals("Last point kept", original.getX(original.size() - 1), simplified.getX(simplified.size() - 1));
+		assertEquals("Last point kept", original.getY(original.size() - 1), simplified.getY(simplified.size() - 1));
+		assertEquals("Points kept", 5, simplified.size());
+		// Every point dropped is within the tolerance of the simplified stroke
+		for (int i = 0; i < original.size(); i++) {
+			double nearest = Double.MAX_VALUE;
+			for (int j = 0; j + 1 < simplified.size(); j++) {
+				nearest = Math.min(nearest, Line2D.ptSegDist(simplified.getX(j), simplified.getY(j),
+						simplified.getX(j + 1), simplified.getY(j + 1), original.getX(i), original.getY(i)));
+			}
+			assertTrue("Point " + i + " within tolerance", nearest <= 1);
+		}
+
+		PointBuffer line = new PointBuffer();
+		for (int i = 0; i < 1000; i++) {
+			line.add(i, 2 * i);
+			line.add(i, 2 * i); // repeated, as while the mouse pauses
+		}
+		assertEquals("Straight run", 2, new StrokeSimplifier(0).simplify(line).size());
+	}
+}
@@ -0,0 +1,174 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * A character level scanner for a single line of a Version 1.0 Paint Save
+ * File. The save file format ignores all white space, so rather than
+ * normalizing each line into a new String, the scanner skips white space
+ * in place while it matches keywords, punctuation and numbers.
+ *
+ * A single instance is reused for every line of a parse, so scanning a
+ * line allocates nothing but the Points that point returns.
+ *
+ * @author
+ *
+ */
+class PaintFileScanner {
+	private CharSequence line; // the line currently being scanned
+	private int pos, end; // the next character to look at, and the end of the line
+
+	/**
+	 * Start scanning line from its first character.
+	 * @param line
+	 */
+	void reset(CharSequence line) {
+		this.line = line;
+		this.pos = 0;
+		this.end = line.length();
+	}
+
+	/**
+	 * Move back to the start of the current line, so that it can be matched
+	 * against another alternative.
+	 */
+	void rewind() {
+		this.pos = 0;
+	}
+
+	/**
+	 * White space as understood by the format, the same characters as \s
+	 * in a regular expression.
+	 */
+	static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	private void skipWhitespace() {
+		while (this.pos < this.end && isWhitespace(this.line.charAt(this.pos))) {
+			this.pos++;
+		}
+	}
+
+	/**
+	 * @return whether the line consists entirely of white space
+	 */
+	boolean isBlank() {
+		this.rewind();
+		return this.atEnd();
+	}
+
+	/**
+	 * @return whether only white space remains on the line
+	 */
+	boolean atEnd() {
+		this.skipWhitespace();
+		return this.pos >= this.end;
+	}
+
+	/**
+	 * Consume word, ignoring any white space around or inside it in the line.
+	 * @param word the characters to match, containing no white space
+	 * @return whether word was found at the current position
+	 */
+	boolean keyword(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			this.skipWhitespace();
+			if (this.pos >= this.end || this.line.charAt(this.pos) != word.charAt(i)) {
+				return false;
+			}
+			this.pos++;
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the whole line is word, ignoring white space
+	 */
+	boolean matches(String word) {
+		this.rewind();
+		return this.keyword(word) && this.atEnd();
+	}
+
+	/**
+	 * Consume a non-negative integer. Digits may be separated by white space,
+	 * as white space is not significant anywhere in the format.
+	 *
+	 * @return the value, or -1 if there is no number at the current position
+	 * @throws NumberFormatException if the value does not fit in an int
+	 */
+	int number() {
+		this.skipWhitespace();
+		if (this.pos >= this.end || !isDigit(this.line.charAt(this.pos))) {
+			return -1;
+		}
+		int value = 0;
+		while (this.pos < this.end) {
+			char c = this.line.charAt(this.pos);
+			if (isDigit(c)) {
+				if (value > (Integer.MAX_VALUE - (c - '0')) / 10) {
+					throw new NumberFormatException("Value too large");
+				}
+				value = value * 10 + (c - '0');
+			} else if (!isWhitespace(c)) {
+				break;
+			}
+			this.pos++;
+		}
+		return value;
+	}
+
+	/**
+	 * Consume a color component, an integer in 0..255 written without leading zeros.
+	 * @return the value, or -1 if there is no valid component at the current position
+	 */
+	int colorComponent() {
+		this.skipWhitespace();
+		int value = 0, digits = 0;
+		while (this.pos < this.end) {
+			char c = this.line.charAt(this.pos);
+			if (isDigit(c)) {
+				if (digits == 1 && value == 0) { // leading zero
+					return -1;
+				}
+				if (++digits > 3) {
+					return -1;
+				}
+				value = value * 10 + (c - '0');
+			} else if (!isWhitespace(c)) {
+				break;
+			}
+			this.pos++;
+		}
+		if (digits == 0 || value > 255) {
+			return -1;
+		}
+		return value;
+	}
+
+	/**
+	 * Consume a point written as (x,y), where x and y may be negative, as
+	 * they are once the drawing has been panned or zoomed.
+	 * @return the point, or null if there is no point at the current position
+	 */
+	Point point() {
+		if (!this.keyword("(")) return null;
+		int xSign = this.sign();
+		int x = this.number();
+		if (x < 0 || !this.keyword(",")) return null;
+		int ySign = this.sign();
+		int y = this.number();
+		if (y < 0 || !this.keyword(")")) return null;
+		return new Point(xSign * x, ySign * y);
+	}
+
+	/**
+	 * Consume an optional minus sign.
+	 * @return -1 if there was one, otherwise 1
+	 */
+	private int sign() {
+		return this.keyword("-") ? -1 : 1;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
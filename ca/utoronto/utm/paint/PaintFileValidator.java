@@ -0,0 +1,201 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Check many save files at once, in either format, and optionally write
+ * each good one back in normalized form: the layout PaintModel.save
+ * produces, in the format it was read in.
+ *
+ * Directories are searched for .txt and .pntb files. Files are parsed
+ * on a pool of threads, one per processor unless -threads is given, each
+ * into its own ColumnarPaintModel. Each failure is reported with the
+ * parser's error message as it is found, and totals are reported at the end.
+ * A file or directory that can not be read, or that a parser chokes on, is
+ * reported as a failure too, and checking goes on with the rest.
+ *
+ * Usage: java ca.utoronto.utm.paint.PaintFileValidator [-threads n] [-normalize] path...
+ *
+ * @author
+ *
+ */
+public class PaintFileValidator {
+	private static final String TEXT_EXTENSION = ".txt";
+
+	private boolean normalize = false;
+	private LongAdder files = new LongAdder(), failures = new LongAdder();
+	private LongAdder shapes = new LongAdder(), points = new LongAdder();
+
+	/**
+	 * @param normalize whether to write each good file back in normalized form
+	 */
+	PaintFileValidator(boolean normalize) {
+		this.normalize = normalize;
+	}
+
+	/**
+	 * Check the files under paths on threads threads, returning when all are done.
+	 */
+	void run(List<Path> paths, int threads) throws InterruptedException {
+		// A short queue, and the walking thread helps when it is full, so
+		// a huge tree is not held in memory as pending tasks
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(4 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			for (Path path : paths) {
+				this.walk(path, pool);
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Hand each save file under path to pool to check.
+	 */
+	private void walk(Path path, ThreadPoolExecutor pool) {
+		try {
+			Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if (attributes.isRegularFile() && isSaveFile(file)) {
+						pool.execute(() -> PaintFileValidator.this.check(file));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					PaintFileValidator.this.files.increment(); // so the totals add up
+					PaintFileValidator.this.fail(file, e.toString());
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+					if (e != null) {
+						PaintFileValidator.this.files.increment();
+						PaintFileValidator.this.fail(directory, e.toString());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			this.files.increment();
+			this.fail(path, e.toString());
+		}
+	}
+
+	private static boolean isSaveFile(Path path) {
+		String name = path.getFileName().toString();
+		return name.endsWith(TEXT_EXTENSION) || name.endsWith(PaintBinaryFileParser.EXTENSION);
+	}
+
+	/**
+	 * Parse the file at path, count what it holds, and normalize it if asked.
+	 */
+	private void check(Path path) {
+		this.files.increment();
+		try {
+			boolean binary = PaintBinaryFileParser.isBinary(path);
+			ColumnarPaintModel paintModel = new ColumnarPaintModel();
+			String errorMessage = PaintFileConverter.load(path, paintModel);
+			if (!errorMessage.equals("")) {
+				this.fail(path, errorMessage);
+				return;
+			}
+			this.shapes.add(paintModel.getShapeCount());
+			this.points.add(paintModel.getPointCount());
+			if (this.normalize) {
+				normalize(path, paintModel, binary);
+			}
+		} catch (IOException | RuntimeException e) {
+			// A parser that throws on a malformed file fails that file, not the run
+			this.fail(path, e.toString());
+		}
+	}
+
+	/**
+	 * Write paintModel over the file at path, through a temporary file
+	 * beside it, so the original survives if writing fails.
+	 */
+	private static void normalize(Path path, PaintModel paintModel, boolean binary) throws IOException {
+		Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), ".normalize", null);
+		try {
+			if (binary) {
+				paintModel.saveBinary(Files.newOutputStream(temporary), StrokeSimplifier.forSave());
+			} else {
+				PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temporary));
+				paintModel.save(writer, StrokeSimplifier.forSave());
+				if (writer.checkError()) {
+					throw new IOException("Error writing " + temporary);
+				}
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private void fail(Path path, String message) {
+		this.failures.increment();
+		System.err.println(path + ": " + message);
+	}
+
+	/**
+	 * @return the totals, given that checking took seconds
+	 */
+	String summary(double seconds) {
+		long files = this.files.sum();
+		return files + " files, " + this.failures.sum() + " failed, " + this.shapes.sum() + " shapes, "
+				+ this.points.sum() + " points in " + String.format("%.2f", seconds) + "s ("
+				+ String.format("%.0f", files / Math.max(seconds, 1e-9)) + " files/s)";
+	}
+
+	long getFiles() {
+		return this.files.sum();
+	}
+
+	long getFailures() {
+		return this.failures.sum();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean normalize = false;
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-normalize")) {
+				normalize = true;
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else {
+				paths.add(Paths.get(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			System.err.println("Usage: PaintFileValidator [-threads n] [-normalize] path...");
+			System.exit(2);
+		}
+		PaintFileValidator validator = new PaintFileValidator(normalize);
+		long start = System.nanoTime();
+		validator.run(paths, threads);
+		System.out.println(validator.summary((System.nanoTime() - start) / 1e9));
+		System.exit(validator.getFailures() == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,46 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+public class PaintFileValidatorTest {
+
+	@Test
+	public void validatorTest() throws Exception {
+		Path directory = Files.createTempDirectory("validate");
+		Path good = directory.resolve("good.txt"), bad = directory.resolve("bad.txt");
+		Path binary = directory.resolve("good" + PaintBinaryFileParser.EXTENSION), badBinary = directory.resolve("bad" + PaintBinaryFileParser.EXTENSION);
+		Files.copy(Paths.get("samplefiles/multishapes.txt"), good);
+		Files.copy(Paths.get("samplefiles/circle_fail_values.txt"), bad);
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(good, paintModel));
+		byte[] bytes = saveBinary(paintModel);
+		Files.write(binary, bytes);
+		Files.write(badBinary, Arrays.copyOf(bytes, bytes.length / 2));
+		Files.write(directory.resolve("notes.md"), new byte[] { 1, 2, 3 }); // not a save file, skipped
+		for (Path p : List.of(good, bad, binary, badBinary, directory.resolve("notes.md"), directory)) {
+			p.toFile().deleteOnExit();
+		}
+
+		// A path that can not be walked fails on its own, the rest are still checked
+		PaintFileValidator validator = new PaintFileValidator(false);
+		validator.run(List.of(directory.resolve("missing"), directory), 2);
+		assertEquals("Files", 5, validator.getFiles());
+		assertEquals("Failures", 3, validator.getFailures());
+		assertTrue("Totals", validator.summary(1).startsWith("5 files, 3 failed, "));
+	}
+
+	private byte[] saveBinary(PaintModel paintModel) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		paintModel.saveBinary(out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,120 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Write a paint model in the Version 1.0 text save file format. Each
+ * PaintCommand writes its own shape block through an instance of this class.
+ *
+ * Text is collected in a large buffer and integers are formatted straight
+ * into it, so writing a command creates no intermediate Strings, and the
+ * time to save grows linearly with the number of points.
+ *
+ * @author
+ *
+ */
+class PaintFileWriter {
+	static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private Appendable out;
+	private char[] buffer;
+	private int count = 0; // chars in buffer
+
+	PaintFileWriter(Appendable out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	PaintFileWriter(Appendable out, int bufferSize) {
+		this.out = out;
+		this.buffer = new char[Math.max(16, bufferSize)];
+	}
+
+	/**
+	 * Write the lines that start every shape block, for example
+	 * Circle, color:r,g,b and filled:true
+	 */
+	PaintFileWriter writeShape(String name, Color color, boolean fill) throws IOException {
+		this.append(name).append('\n');
+		this.append("\tcolor:").append((int) (color.getRed() * 255));
+		this.append(',').append((int) (color.getGreen() * 255));
+		this.append(',').append((int) (color.getBlue() * 255)).append('\n');
+		return this.append("\tfilled:").append(fill ? "true" : "false").append('\n');
+	}
+
+	/**
+	 * Write a point as (x,y)
+	 */
+	PaintFileWriter appendPoint(int x, int y) throws IOException {
+		return this.append('(').append(x).append(',').append(y).append(')');
+	}
+
+	PaintFileWriter append(String s) throws IOException {
+		int n = s.length();
+		if (this.count + n > this.buffer.length) {
+			this.flushBuffer();
+			if (n > this.buffer.length) {
+				this.out.append(s);
+				return this;
+			}
+		}
+		s.getChars(0, n, this.buffer, this.count);
+		this.count += n;
+		return this;
+	}
+
+	PaintFileWriter append(char c) throws IOException {
+		if (this.count == this.buffer.length) {
+			this.flushBuffer();
+		}
+		this.buffer[this.count++] = c;
+		return this;
+	}
+
+	/**
+	 * Write value in decimal, as Integer.toString would, without creating a String.
+	 */
+	PaintFileWriter append(int value) throws IOException {
+		if (this.count + 11 > this.buffer.length) { // room for -2147483648
+			this.flushBuffer();
+		}
+		long v = value; // so that -Integer.MIN_VALUE does not overflow
+		if (v < 0) {
+			this.buffer[this.count++] = '-';
+			v = -v;
+		}
+		int digits = 1;
+		for (long p = 10; p <= v; p *= 10) {
+			digits++;
+		}
+		int pos = this.count + digits;
+		do {
+			this.buffer[--pos] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		this.count += digits;
+		return this;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.out instanceof Writer) {
+			((Writer) this.out).write(this.buffer, 0, this.count);
+		} else {
+			this.out.append(CharBuffer.wrap(this.buffer, 0, this.count));
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * Write everything buffered so far to the underlying Appendable.
+	 */
+	void flush() throws IOException {
+		this.flushBuffer();
+		if (this.out instanceof Writer) {
+			((Writer) this.out).flush();
+		}
+	}
+}
@@ -0,0 +1,828 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import javafx.scene.paint.Color;
+
+/**
+ * A write ahead journal of the changes made to a paint model, so a drawing
+ * survives the application being killed. Every change, a command added or
+ * removed, points appended to a stroke, a circle's radius changed, is
+ * appended to the journal as a small record, and the drawing is rebuilt on
+ * the next start by replaying them.
+ *
+ * Changes are recorded on the JavaFX application thread, as the model tells
+ * its listeners about them. Only the difference from what was last recorded
+ * for the command is written, so a stroke being drawn costs a few bytes per
+ * point. A background thread appends the records to the file, forcing them
+ * to disk at most every paint.journal.sync milliseconds, 100 by default, so
+ * a crash loses at most the last moment of drawing.
+ *
+ * The journal lives in a directory of its own, as a series of generations.
+ * Generation g is the save file drawing-g.pntb, in the binary format, and
+ * the records made since it was written, in drawing-g.journal. Once the
+ * journal has grown by paint.journal.compact bytes, 8 MB by default, the
+ * background thread folds it into the save file of the next generation and
+ * starts an empty journal, then deletes the old generation. A new generation
+ * is complete before the old one is deleted, so a crash at any point leaves
+ * a drawing to recover.
+ *
+ * A drawing opened from a file is not recorded shape by shape. Once the
+ * file has been read, a copy of it becomes the save file of a new
+ * generation, see opening.
+ *
+ * The journal file starts with the magic bytes PNTJ and a version byte. Each
+ * record is an unsigned varint length, the record, and a CRC32 of it, so a
+ * record torn by a crash is recognised and dropped. A record is a type and
+ * then, written as by PaintBinaryWriter:
+ *
+ *   ADD       a shape block, as in the binary save file format
+ *   REMOVE    id
+ *   POINTS    id, the index of the first point that changed, then a point
+ *             list replacing the points from there on
+ *   GEOMETRY  id, then the centre and radius of a circle, or p1 and p2 of a rectangle
+ *   STYLE     id, then a shape block header with type 0
+ *   RESET     nothing, the model was emptied
+ *
+ * Commands are identified by the order in which they were added since the
+ * generation, or the last RESET, began.
+ *
+ * @author
+ *
+ */
+class PaintJournal implements PaintModelListener {
+	static final byte[] MAGIC = { 'P', 'N', 'T', 'J' };
+	static final int VERSION = 1;
+	static final int ADD = 1, REMOVE = 2, POINTS = 3, GEOMETRY = 4, STYLE = 5, RESET = 6;
+	private static final long SYNC_MILLIS = Long.getLong("paint.journal.sync", 100);
+	private static final long COMPACT_BYTES = Long.getLong("paint.journal.compact", 8L << 20);
+
+	// Tell the writer to fold the journal into a new generation, to start one
+	// from the next of the opened files, or to stop
+	private static final byte[] COMPACT = new byte[0], OPENED = new byte[0], CLOSE = new byte[0];
+
+	/**
+	 * What was last recorded about a command in the model.
+	 */
+	private static class Recorded {
+		int id;
+		Color color;
+		boolean fill;
+		int x1, y1, x2, y2; // circle centre and radius, or rectangle p1 and p2
+		PointBuffer points; // of a squiggle or polyline
+		int size, lastX, lastY; // of points
+		int stamp; // the last reconcile that saw the command
+	}
+
+	private PaintModel model;
+	private IdentityHashMap<PaintCommand, Recorded> recorded = new IdentityHashMap<PaintCommand, Recorded>();
+	private int nextId = 0;
+	private int stamp = 0;
+	private long bytesSinceCompact = 0;
+	private boolean loading = false; // the model is being read from a file, see opening
+	private boolean editedWhileLoading = false; // and was changed other than by the file's commands arriving
+	private ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private PaintBinaryWriter writer = new PaintBinaryWriter(this.record);
+
+	private Path directory;
+	private int generation; // of the files being written
+	private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+	private ConcurrentLinkedQueue<Path> opened = new ConcurrentLinkedQueue<Path>(); // copies of opened files, one per OPENED
+	private Thread thread;
+	private volatile boolean failed = false; // once writing fails the journal stops recording
+
+	/**
+	 * Recover the drawing journalled in directory, and start journalling
+	 * changes to it.
+	 * @param directory created if it does not exist
+	 * @return the journal, see getPaintModel for the recovered drawing
+	 * @throws IOException if the journal can not be read, or a new generation not started
+	 */
+	static PaintJournal open(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		int generation = -1;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "drawing-*")) {
+			for (Path file : files) {
+				generation = Math.max(generation, generationOf(file));
+			}
+		}
+		PaintModel model = generation < 0 ? new PaintModel() : recover(directory, generation);
+		PaintJournal journal = new PaintJournal(directory, generation + 1);
+		journal.startGeneration(journal.generation, model);
+		journal.deleteBefore(journal.generation);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "opened-*")) {
+			for (Path file : files) {
+				Files.delete(file); // copied for a generation that was never started
+			}
+		}
+		// The new generation's save file holds the model, numbered in drawing order
+		journal.model = model;
+		for (PaintCommand c : model.commands()) {
+			journal.number(c);
+		}
+		model.addListener(journal);
+		journal.thread = new Thread(journal::write, "Paint journal");
+		journal.thread.setDaemon(true);
+		journal.thread.start();
+		return journal;
+	}
+
+	private PaintJournal(Path directory, int generation) {
+		this.directory = directory;
+		this.generation = generation;
+	}
+
+	/**
+	 * @return the model being journalled, after open the recovered drawing
+	 */
+	PaintModel getPaintModel() {
+		return this.model;
+	}
+
+	/**
+	 * Journal model, in place of the model journalled so far. A drawing
+	 * opened lazily, a LazyPaintModel, is not journalled, as that would mean
+	 * reading the whole of it, the journal is left empty instead.
+	 */
+	void setPaintModel(PaintModel model) {
+		if (model == this.model && !this.loading) return;
+		if (this.model != null) {
+			this.model.removeListener(this);
+		}
+		this.model = model instanceof LazyPaintModel ? null : model;
+		this.loading = false;
+		this.record();
+		if (this.model != null) this.model.addListener(this);
+	}
+
+	/**
+	 * Journal model, which is about to be filled from a file by a
+	 * PaintFileLoader: the loader hands each batch of the file's commands to
+	 * loaded, and then the model to opened or, if the file could not be read
+	 * in full, to setPaintModel. Until then the journal keeps the drawing it
+	 * had, and only notes whether model is changed by anything but the loader.
+	 */
+	void opening(PaintModel model) {
+		if (this.model != null) {
+			this.model.removeListener(this);
+		}
+		this.model = model;
+		this.recorded.clear();
+		this.nextId = 0;
+		this.loading = true;
+		this.editedWhileLoading = false;
+		model.addListener(this);
+	}
+
+	/**
+	 * Take commands, the next of those read from the file being opened, as
+	 * recorded, numbered as they are in the file.
+	 */
+	void loaded(List<PaintCommand> commands) {
+		if (!this.loading) return;
+		for (PaintCommand c : commands) {
+			this.number(c);
+		}
+	}
+
+	/**
+	 * The file being read into model has been read in full. Start a new
+	 * generation with a copy of it as the save file, then record whatever
+	 * else was changed in model while the file was read.
+	 */
+	void opened(PaintModel model, Path file) {
+		if (model != this.model || !this.loading) return;
+		this.loading = false;
+		Path copy;
+		try {
+			// Copied now, before the file can be saved over
+			copy = Files.createTempFile(this.directory, "opened-", ".tmp");
+			Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.out.println("Paint journal recording " + file.getFileName() + " shape by shape: " + e.getMessage());
+			this.record();
+			return;
+		}
+		this.opened.add(copy);
+		this.queue.add(OPENED);
+		this.bytesSinceCompact = 0;
+		if (this.editedWhileLoading) {
+			try {
+				this.reconcile();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e); // records are written to memory
+			}
+		}
+	}
+
+	/**
+	 * Record the model afresh: empty the journal and add each command to it.
+	 */
+	private void record() {
+		try {
+			this.reset();
+			if (this.model != null) this.reconcile();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // records are written to memory
+		}
+	}
+
+	/**
+	 * Write out everything recorded so far, force it to disk, and stop.
+	 */
+	void close() throws InterruptedException {
+		if (this.model != null) {
+			this.model.removeListener(this);
+		}
+		this.queue.add(CLOSE);
+		this.thread.join();
+	}
+
+	/**
+	 * Record the change the model is telling its listeners about.
+	 */
+	@Override
+	public void modelChanged(Change change, PaintCommand command, Rect damage) {
+		if (this.failed) return;
+		if (this.loading) {
+			if (!this.isLoaded(change, command)) this.editedWhileLoading = true;
+			return;
+		}
+		try {
+			switch (change) {
+			case ADDED:
+			case CHANGED:
+				Recorded r = this.recorded.get(command);
+				if (r == null) {
+					this.add(command);
+				} else {
+					this.diff(command, r);
+				}
+				break;
+			case REMOVED:
+				r = this.recorded.remove(command);
+				if (r != null) this.remove(r);
+				break;
+			default:
+				int from = this.model.getAppendedFrom();
+				if (from >= 0) {
+					this.added(from);
+				} else {
+					this.reconcile();
+				}
+			}
+			if (this.bytesSinceCompact > COMPACT_BYTES) {
+				this.compact();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // records are written to memory
+		}
+	}
+
+	/**
+	 * @return whether the change is only commands of the file being opened
+	 * arriving in the model, see loaded
+	 */
+	private boolean isLoaded(Change change, PaintCommand command) {
+		if (change == Change.ADDED) return this.recorded.containsKey(command);
+		int from = change == Change.BATCH ? this.model.getAppendedFrom() : -1;
+		if (from < 0) return false;
+		for (PaintCommand c : this.model.commandsFrom(from)) {
+			if (!this.recorded.containsKey(c)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Record the commands a batch added on top of the model, those from
+	 * index from on, without visiting the rest of it.
+	 */
+	private void added(int from) throws IOException {
+		for (PaintCommand c : this.model.commandsFrom(from)) {
+			if (!this.recorded.containsKey(c)) this.add(c);
+		}
+	}
+
+	/**
+	 * Record the difference between the model and what has been recorded of
+	 * it, when the model does not say which command changed. This visits
+	 * every command, but only happens for resets, and batches that did more
+	 * than add commands.
+	 */
+	private void reconcile() throws IOException {
+		int stamp = ++this.stamp;
+		int seen = 0;
+		for (PaintCommand c : this.model.commands()) {
+			Recorded r = this.recorded.get(c);
+			if (r == null) {
+				r = this.add(c);
+			} else {
+				this.diff(c, r);
+			}
+			r.stamp = stamp;
+			seen++;
+		}
+		if (seen == 0) {
+			this.reset();
+		} else if (seen < this.recorded.size()) {
+			ArrayList<PaintCommand> gone = new ArrayList<PaintCommand>();
+			this.recorded.forEach((c, r) -> {
+				if (r.stamp != stamp) gone.add(c);
+			});
+			for (PaintCommand c : gone) {
+				this.remove(this.recorded.remove(c));
+			}
+		}
+	}
+
+	private Recorded add(PaintCommand command) throws IOException {
+		Recorded r = this.number(command);
+		this.writer.writeUnsigned(ADD);
+		command.write(this.writer);
+		this.send();
+		return r;
+	}
+
+	private void remove(Recorded r) throws IOException {
+		this.writer.writeUnsigned(REMOVE);
+		this.writer.writeUnsigned(r.id);
+		this.send();
+	}
+
+	/**
+	 * Record that the model was emptied, if anything was recorded of it.
+	 */
+	private void reset() throws IOException {
+		if (this.recorded.isEmpty() && this.nextId == 0) return;
+		this.recorded.clear();
+		this.nextId = 0;
+		this.writer.writeUnsigned(RESET);
+		this.send();
+	}
+
+	/**
+	 * Record how command differs from r, and update r to match.
+	 */
+	private void diff(PaintCommand command, Recorded r) throws IOException {
+		if (!command.getColor().equals(r.color) || command.isFill() != r.fill) {
+			this.writer.writeUnsigned(STYLE);
+			this.writer.writeUnsigned(r.id);
+			this.writer.writeShape(0, command.getColor(), command.isFill());
+			this.send();
+		}
+		if (command instanceof CircleCommand) {
+			CircleCommand circle = (CircleCommand) command;
+			if (circle.getCentre().x != r.x1 || circle.getCentre().y != r.y1 || circle.getRadius() != r.x2) {
+				this.writer.writeUnsigned(GEOMETRY);
+				this.writer.writeUnsigned(r.id);
+				this.writer.writeInt(circle.getCentre().x);
+				this.writer.writeInt(circle.getCentre().y);
+				this.writer.writeInt(circle.getRadius());
+				this.send();
+			}
+		} else if (command instanceof RectangleCommand) {
+			RectangleCommand rectangle = (RectangleCommand) command;
+			Point p1 = rectangle.getP1(), p2 = rectangle.getP2();
+			if (p1.x != r.x1 || p1.y != r.y1 || p2.x != r.x2 || p2.y != r.y2) {
+				this.writer.writeUnsigned(GEOMETRY);
+				this.writer.writeUnsigned(r.id);
+				this.writer.writeInt(p1.x);
+				this.writer.writeInt(p1.y);
+				this.writer.writeInt(p2.x);
+				this.writer.writeInt(p2.y);
+				this.send();
+			}
+		} else {
+			PointBuffer points = pointsOf(command);
+			int n = points.size();
+			// Points are appended, the last one moved or removed, or, when a
+			// stroke is simplified, all of them replaced by a new buffer
+			int from;
+			if (points != r.points) {
+				from = 0;
+			} else if (n < r.size) {
+				from = Math.max(0, n - 1);
+			} else if (r.size > 0 && (points.getX(r.size - 1) != r.lastX || points.getY(r.size - 1) != r.lastY)) {
+				from = r.size - 1;
+			} else {
+				from = r.size;
+			}
+			if (from < n || n != r.size) {
+				this.writer.writeUnsigned(POINTS);
+				this.writer.writeUnsigned(r.id);
+				this.writer.writeUnsigned(from);
+				this.writer.writePointCount(n - from);
+				for (int i = from; i < n; i++) {
+					this.writer.writePoint(points.getX(i), points.getY(i));
+				}
+				this.send();
+			}
+		}
+		this.remember(command, r);
+	}
+
+	/**
+	 * Take command, as it is now, as recorded with the next id.
+	 */
+	private Recorded number(PaintCommand command) {
+		Recorded r = new Recorded();
+		r.id = this.nextId++;
+		this.remember(command, r);
+		this.recorded.put(command, r);
+		return r;
+	}
+
+	/**
+	 * Make r what is recorded of command as it is now.
+	 */
+	private void remember(PaintCommand command, Recorded r) {
+		r.color = command.getColor();
+		r.fill = command.isFill();
+		if (command instanceof CircleCommand) {
+			CircleCommand circle = (CircleCommand) command;
+			r.x1 = circle.getCentre().x;
+			r.y1 = circle.getCentre().y;
+			r.x2 = circle.getRadius();
+		} else if (command instanceof RectangleCommand) {
+			RectangleCommand rectangle = (RectangleCommand) command;
+			r.x1 = rectangle.getP1().x;
+			r.y1 = rectangle.getP1().y;
+			r.x2 = rectangle.getP2().x;
+			r.y2 = rectangle.getP2().y;
+		} else {
+			PointBuffer points = pointsOf(command);
+			r.points = points;
+			r.size = points.size();
+			if (r.size > 0) {
+				r.lastX = points.getX(r.size - 1);
+				r.lastY = points.getY(r.size - 1);
+			}
+		}
+	}
+
+	private static PointBuffer pointsOf(PaintCommand command) {
+		return command instanceof SquiggleCommand ? ((SquiggleCommand) command).getPointBuffer()
+				: ((PolyLineCommand) command).getPointBuffer();
+	}
+
+	/**
+	 * Pass the record just written to the writer thread.
+	 */
+	private void send() throws IOException {
+		this.writer.flush();
+		this.queue.add(this.record.toByteArray());
+		this.bytesSinceCompact += this.record.size();
+		this.record.reset();
+	}
+
+	/**
+	 * Ask the writer thread to start a new generation. Its save file is the
+	 * drawing as replayed, so its commands are in the order of their ids,
+	 * which is not the model's if a shape was drawn while a file was being
+	 * opened. They are numbered in that order here too.
+	 */
+	void compact() {
+		Recorded[] byId = new Recorded[this.nextId];
+		for (Recorded r : this.recorded.values()) {
+			byId[r.id] = r;
+		}
+		int id = 0;
+		for (Recorded r : byId) {
+			if (r != null) r.id = id++;
+		}
+		this.nextId = id;
+		this.bytesSinceCompact = 0;
+		this.queue.add(COMPACT);
+	}
+
+	/**
+	 * The writer thread: append records to the journal file as they arrive,
+	 * forcing each batch of them to disk.
+	 */
+	private void write() {
+		ArrayList<byte[]> batch = new ArrayList<byte[]>();
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		CRC32 crc = new CRC32();
+		long lastSync = 0;
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(this.journalFile(this.generation), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			while (true) {
+				batch.clear();
+				batch.add(this.queue.take());
+				long wait = lastSync + SYNC_MILLIS - System.currentTimeMillis();
+				if (wait > 0) Thread.sleep(wait); // let the batch grow
+				this.queue.drainTo(batch);
+				for (byte[] r : batch) {
+					if (r == COMPACT || r == OPENED || r == CLOSE) {
+						append(channel, frames);
+						channel.force(false);
+						channel.close();
+						if (r == CLOSE) return;
+						if (r == COMPACT) {
+							this.startGeneration(this.generation + 1, recover(this.directory, this.generation));
+						} else {
+							this.startGeneration(this.generation + 1, this.opened.remove());
+						}
+						this.deleteBefore(++this.generation);
+						channel = FileChannel.open(this.journalFile(this.generation), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+						continue;
+					}
+					writeUnsigned(frames, r.length);
+					frames.write(r);
+					crc.reset();
+					crc.update(r);
+					int check = (int) crc.getValue();
+					frames.write(check >>> 24);
+					frames.write(check >>> 16);
+					frames.write(check >>> 8);
+					frames.write(check);
+				}
+				append(channel, frames);
+				channel.force(false);
+				lastSync = System.currentTimeMillis();
+			}
+		} catch (IOException e) {
+			this.failed = true;
+			System.out.println("Paint journal stopped: " + e.getMessage());
+		} catch (RuntimeException e) {
+			this.failed = true;
+			System.out.println("Paint journal stopped: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				if (channel != null) channel.close();
+			} catch (IOException e) {
+				// Nothing more can be done
+			}
+		}
+	}
+
+	private static void append(FileChannel channel, ByteArrayOutputStream frames) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		frames.reset();
+	}
+
+	private static void writeUnsigned(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Write model as the save file of generation next, and start its empty
+	 * journal. Each file is on disk before the next is begun.
+	 */
+	private void startGeneration(int next, PaintModel model) throws IOException {
+		Path temporary = this.temporaryFile(next);
+		model.saveBinary(Files.newOutputStream(temporary));
+		this.install(next, temporary);
+	}
+
+	/**
+	 * Make opened, a copy of a file as it was opened, the save file of
+	 * generation next, and start its empty journal. A text file is converted,
+	 * its strokes simplified as PaintFileLoader does, so that the save file
+	 * holds the commands the model was given.
+	 */
+	private void startGeneration(int next, Path opened) throws IOException {
+		Path temporary = this.temporaryFile(next);
+		if (PaintBinaryFileParser.isBinary(opened)) {
+			Files.move(opened, temporary, StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			PaintModel model = new ColumnarPaintModel(); // no need for a command object per shape
+			PaintFileParser parser = new PaintFileParser();
+			parser.setSimplifier(StrokeSimplifier.forLoad());
+			if (!parser.parse(opened, model)) {
+				throw new IOException("Opened file " + opened + ": " + parser.getErrorMessage());
+			}
+			model.saveBinary(Files.newOutputStream(temporary));
+			Files.delete(opened);
+		}
+		this.install(next, temporary);
+	}
+
+	/**
+	 * Make temporary, once on disk, the save file of generation next, and
+	 * start its empty journal.
+	 */
+	private void install(int next, Path temporary) throws IOException {
+		Path save = this.saveFile(next);
+		force(temporary);
+		Files.move(temporary, save, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		Path journal = this.journalFile(next);
+		try (OutputStream out = Files.newOutputStream(journal)) {
+			out.write(MAGIC);
+			out.write(VERSION);
+		}
+		force(journal);
+	}
+
+	private static void force(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Delete the files of the generations before generation.
+	 */
+	private void deleteBefore(int generation) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "drawing-*")) {
+			for (Path file : files) {
+				if (generationOf(file) < generation) Files.delete(file);
+			}
+		}
+	}
+
+	private Path saveFile(int generation) {
+		return this.directory.resolve("drawing-" + generation + PaintBinaryFileParser.EXTENSION);
+	}
+
+	private Path temporaryFile(int generation) {
+		return this.directory.resolve("drawing-" + generation + PaintBinaryFileParser.EXTENSION + ".tmp");
+	}
+
+	private Path journalFile(int generation) {
+		return this.directory.resolve("drawing-" + generation + ".journal");
+	}
+
+	/**
+	 * @return the generation of a file in the journal's directory, -1 if it is not one
+	 */
+	private static int generationOf(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.indexOf('.');
+		try {
+			return Integer.parseInt(name.substring("drawing-".length(), dot < 0 ? name.length() : dot));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the drawing of generation in directory, its save file with the
+	 * records of its journal replayed, as far as they are intact
+	 */
+	static PaintModel recover(Path directory, int generation) throws IOException {
+		PaintModel model = new PaintModel();
+		Path save = directory.resolve("drawing-" + generation + PaintBinaryFileParser.EXTENSION);
+		Path journal = directory.resolve("drawing-" + generation + ".journal");
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>(); // by id
+		if (Files.exists(save)) {
+			PaintBinaryFileParser parser = new PaintBinaryFileParser() {
+				@Override
+				void addCommand(PaintCommand command) {
+					super.addCommand(command);
+					commands.add(command);
+				}
+			};
+			if (!parser.parse(save, model)) {
+				throw new IOException("Journal save file " + save + ": " + parser.getErrorMessage());
+			}
+		}
+		if (Files.exists(journal)) {
+			try (InputStream in = Files.newInputStream(journal)) {
+				replay(in, model, commands);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Apply the records read from in to model, stopping at the end or at
+	 * the first damaged record.
+	 * @param commands the commands of model, by id
+	 * @return the number of records applied
+	 */
+	static int replay(InputStream in, PaintModel model, ArrayList<PaintCommand> commands) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		byte[] magic = new byte[MAGIC.length + 1];
+		try {
+			data.readFully(magic);
+		} catch (EOFException e) {
+			return 0; // torn before the header was complete
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (magic[i] != MAGIC[i]) throw new IOException("Not a paint journal");
+		}
+		if (magic[MAGIC.length] != VERSION) throw new IOException("Unsupported paint journal version");
+		CRC32 crc = new CRC32();
+		int applied = 0;
+		model.beginUpdate();
+		try {
+			while (true) {
+				byte[] r;
+				try {
+					int length = 0;
+					for (int shift = 0;; shift += 7) {
+						int b = data.readUnsignedByte();
+						length |= (b & 0x7F) << shift;
+						if ((b & 0x80) == 0) break;
+						if (shift > 28) return applied;
+					}
+					r = new byte[length];
+					data.readFully(r);
+					crc.reset();
+					crc.update(r);
+					if (data.readInt() != (int) crc.getValue()) return applied;
+				} catch (EOFException e) {
+					return applied;
+				}
+				try {
+					apply(new PaintBlockReader(r), model, commands);
+				} catch (IOException | RuntimeException e) {
+					// Keep the drawing as of the last record that fitted it
+					System.out.println("Paint journal replayed up to record " + applied + ": " + e.getMessage());
+					return applied;
+				}
+				applied++;
+			}
+		} finally {
+			model.endUpdate();
+		}
+	}
+
+	private static void apply(PaintBlockReader r, PaintModel model, ArrayList<PaintCommand> commands) throws IOException {
+		int type = r.readUnsigned();
+		if (type == ADD) {
+			PaintCommand command = r.readShape();
+			commands.add(command);
+			model.addCommand(command);
+			return;
+		}
+		if (type == RESET) {
+			model.reset();
+			commands.clear();
+			return;
+		}
+		int id = r.readUnsigned();
+		PaintCommand command = id < commands.size() ? commands.get(id) : null;
+		if (command == null) throw new IOException("Paint journal refers to unknown command " + id);
+		switch (type) {
+		case REMOVE:
+			model.removeCommand(command);
+			commands.set(id, null);
+			break;
+		case POINTS:
+			if (!(command instanceof SquiggleCommand || command instanceof PolyLineCommand)) {
+				throw new IOException("Paint journal changes the points of " + command.getShapeName() + " " + id);
+			}
+			int from = r.readUnsigned();
+			if (command instanceof SquiggleCommand) {
+				((SquiggleCommand) command).truncate(from);
+			} else {
+				((PolyLineCommand) command).truncate(from);
+			}
+			r.readPoints(command);
+			break;
+		case GEOMETRY:
+			if (!(command instanceof CircleCommand || command instanceof RectangleCommand)) {
+				throw new IOException("Paint journal changes the geometry of " + command.getShapeName() + " " + id);
+			}
+			if (command instanceof CircleCommand) {
+				CircleCommand circle = (CircleCommand) command;
+				circle.setCentre(r.readPoint());
+				circle.setRadius(r.readInt());
+			} else {
+				RectangleCommand rectangle = (RectangleCommand) command;
+				rectangle.setP1(r.readPoint());
+				rectangle.setP2(r.readPoint());
+			}
+			break;
+		case STYLE:
+			int tag = r.readByte();
+			command.setColor(r.readColor());
+			command.setFill((tag & PaintBinaryFileParser.FILLED) != 0);
+			break;
+		default:
+			throw new IOException("Unknown paint journal record type " + type);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class PaintJournalTest {
+
+	@Test
+	public void journalTest() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		PaintJournal journal = PaintJournal.open(directory);
+		PaintModel paintModel = journal.getPaintModel();
+		assertEquals("Starts empty", 0, paintModel.getCommandsIn(new Rect(0, 0, 1000, 1000)).size());
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+
+		// Edit as the canvas would
+		CircleCommand circle = new CircleCommand(new Point(10, 10), 0);
+		paintModel.addCommand(circle);
+		circle.setRadius(7);
+		PolyLineCommand polyline = new PolyLineCommand();
+		polyline.add(1, 1);
+		paintModel.addCommand(polyline);
+		polyline.add(2, 3);
+		polyline.change(4, 5);
+		polyline.add(6, 7);
+		polyline.remove();
+		SquiggleCommand squiggle = new SquiggleCommand();
+		paintModel.addCommand(squiggle);
+		for (int i = 0; i < 50; i++) squiggle.add(i, i * i % 17);
+		paintModel.removeCommand(circle);
+		String drawn = report(paintModel);
+		journal.close();
+
+		// A record torn by a crash is dropped
+		Path file;
+		try (Stream<Path> files = Files.list(directory)) {
+			file = files.filter(f -> f.toString().endsWith(".journal")).findFirst().get();
+		}
+		Files.write(file, new byte[] { 40, PaintJournal.ADD, 1 }, StandardOpenOption.APPEND);
+		journal = PaintJournal.open(directory);
+		assertEquals("Recovered", drawn, report(journal.getPaintModel()));
+		assertFalse("Old generation deleted", Files.exists(file));
+
+		// Emptied, and recovered again
+		journal.getPaintModel().reset();
+		journal.close();
+		journal = PaintJournal.open(directory);
+		assertEquals("Recovered reset", report(new PaintModel()), report(journal.getPaintModel()));
+		journal.close();
+	}
+
+	@Test
+	public void journalOpenTest() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		Path binary = Files.createTempFile("opened", PaintBinaryFileParser.EXTENSION);
+		PaintModel multishapes = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), multishapes));
+		multishapes.saveBinary(Files.newOutputStream(binary));
+		for (Path file : List.of(binary, Paths.get("samplefiles/multishapes.txt"))) {
+			PaintJournal journal = PaintJournal.open(directory);
+			journal.getPaintModel().addCommand(new CircleCommand(new Point(1, 2), 3)); // replaced by the file
+
+			List<PaintCommand> commands = read(file);
+			SquiggleCommand squiggle = new SquiggleCommand();
+			PaintModel paintModel = open(journal, file, commands, squiggle);
+			CircleCommand circle = new CircleCommand(new Point(40, 40), 4);
+			paintModel.addCommand(circle);
+			circle.setRadius(9);
+			journal.close();
+
+			// The file is the save file of the new generation, only what was drawn is in its journal
+			Path journalFile;
+			try (Stream<Path> files = Files.list(directory)) {
+				journalFile = files.filter(f -> f.toString().endsWith(".journal")).findFirst().get();
+			}
+			assertTrue(file + ": Journal of what was drawn", Files.size(journalFile) < 64);
+			// A shape drawn while the file was read is recovered on top of it
+			PaintModel expected = new PaintModel();
+			expected.addCommands(commands);
+			expected.addCommand(squiggle);
+			expected.addCommand(circle);
+			journal = PaintJournal.open(directory);
+			assertEquals(file + ": Recovered", report(expected), report(journal.getPaintModel()));
+			journal.close();
+		}
+	}
+
+	@Test
+	public void journalCompactAfterOpenTest() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		Path file = Paths.get("samplefiles/multishapes.txt");
+		PaintJournal journal = PaintJournal.open(directory);
+		List<PaintCommand> commands = read(file);
+		SquiggleCommand squiggle = new SquiggleCommand();
+		PaintModel paintModel = open(journal, file, commands, squiggle);
+
+		// Folded into a new generation, numbered as it is saved, the squiggle after the file's shapes
+		journal.compact();
+		squiggle.add(20, 20);
+		for (PaintCommand c : commands) {
+			if (c instanceof CircleCommand) ((CircleCommand) c).setRadius(11);
+			if (c instanceof PolyLineCommand) ((PolyLineCommand) c).add(30, 30);
+		}
+		paintModel.removeCommand(commands.get(0));
+		String drawn = report(paintModel);
+		journal.close();
+
+		PaintModel expected = new PaintModel();
+		expected.addCommands(commands.subList(1, commands.size()));
+		expected.addCommand(squiggle);
+		journal = PaintJournal.open(directory);
+		assertNotEquals("Drawn in another order", drawn, report(expected));
+		assertEquals("Recovered", report(expected), report(journal.getPaintModel()));
+		journal.close();
+	}
+
+	@Test
+	public void journalMismatchedRecordTest() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		PaintJournal journal = PaintJournal.open(directory);
+		PaintModel paintModel = journal.getPaintModel();
+		paintModel.addCommand(new CircleCommand(new Point(10, 10), 5));
+		SquiggleCommand squiggle = new SquiggleCommand();
+		paintModel.addCommand(squiggle);
+		squiggle.add(1, 2);
+		squiggle.add(3, 4);
+		String drawn = report(paintModel);
+		journal.close();
+
+		// Points for the circle, as a journal numbered wrongly would have them
+		Path file;
+		try (Stream<Path> files = Files.list(directory)) {
+			file = files.filter(f -> f.toString().endsWith(".journal")).findFirst().get();
+		}
+		byte[] record = { PaintJournal.POINTS, 0, 0, 0 };
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer frame = ByteBuffer.allocate(1 + record.length + 4);
+		frame.put((byte) record.length).put(record).putInt((int) crc.getValue());
+		Files.write(file, frame.array(), StandardOpenOption.APPEND);
+
+		// Replayed up to the record that does not fit
+		journal = PaintJournal.open(directory);
+		assertEquals("Recovered", drawn, report(journal.getPaintModel()));
+		journal.close();
+	}
+
+	/**
+	 * @return the commands of file, read as PaintFileLoader reads them
+	 */
+	private static List<PaintCommand> read(Path file) throws IOException {
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+		if (PaintBinaryFileParser.isBinary(file)) {
+			PaintBinaryFileParser parser = new PaintBinaryFileParser() {
+				@Override
+				void addCommand(PaintCommand command) {
+					commands.add(command);
+				}
+			};
+			assertTrue(parser.parse(Files.newInputStream(file), null));
+		} else {
+			PaintFileParser parser = new PaintFileParser() {
+				@Override
+				void addCommand(PaintCommand command) {
+					commands.add(command);
+				}
+			};
+			parser.setSimplifier(StrokeSimplifier.forLoad());
+			assertTrue(parser.parse(Files.newBufferedReader(file), null));
+		}
+		return commands;
+	}
+
+	/**
+	 * Open file, whose commands are commands, into a new model journalled by
+	 * journal, as View does. The commands are handed over in two batches,
+	 * and squiggle is drawn in between, so it is in the middle of the model
+	 * but recovered on top of the file's shapes.
+	 * @return the model
+	 */
+	private static PaintModel open(PaintJournal journal, Path file, List<PaintCommand> commands, SquiggleCommand squiggle) {
+		PaintModel paintModel = new PaintModel();
+		journal.opening(paintModel);
+		List<PaintCommand> first = commands.subList(0, commands.size() / 2), rest = commands.subList(first.size(), commands.size());
+		journal.loaded(first);
+		paintModel.addCommands(first);
+		paintModel.addCommand(squiggle);
+		squiggle.add(5, 5);
+		squiggle.add(9, 1);
+		journal.loaded(rest);
+		paintModel.addCommands(rest);
+		journal.opened(paintModel, file);
+		return paintModel;
+	}
+
+	/**
+	 * @return the model as it would be saved
+	 */
+	private String report(PaintModel paintModel) {
+		StringWriter s = new StringWriter();
+		paintModel.save(new PrintWriter(s));
+		return s.toString();
+	}
+}
@@ -1,54 +1,295 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import ca.utoronto.utm.paint.PaintModelListener.Change;
 import javafx.scene.canvas.GraphicsContext;
 
-public class PaintModel extends Observable implements Observer {
+public class PaintModel implements PaintCommandListener {
+	private static final PaintModelListener[] NO_LISTENERS = {};
+	private static final AtomicReferenceFieldUpdater<PaintModel, PaintModelListener[]> LISTENERS =
+			AtomicReferenceFieldUpdater.newUpdater(PaintModel.class, PaintModelListener[].class, "listeners");
 
+	/**
+	 * Save this in the text save file format. Each command writes its
+	 * block straight into one large buffer.
+	 * @param writer closed once the model is written
+	 */
 	public void save(PrintWriter writer) {
-		writer.println("PaintSaveFileVersion1.0");
-		for (PaintCommand c: this.commands) {
-			writer.print(c.report());
+		this.save(writer, null);
+	}
+	
+	/**
+	 * Save this in the text save file format, simplifying strokes on the way.
+	 * The commands of this are not changed.
+	 * @param writer closed once the model is written
+	 * @param simplifier null to write strokes as they are
+	 */
+	void save(PrintWriter writer, StrokeSimplifier simplifier) {
+		PaintFileWriter out = new PaintFileWriter(writer);
+		try {
+			out.append("PaintSaveFileVersion1.0").append(System.lineSeparator());
+			for (PaintCommand c: this.commandsToWrite()) {
+				(simplifier == null ? c : c.simplified(simplifier)).write(out);
+			}
+			out.append("EndPaintSaveFile");
+			out.flush();
+		} catch (IOException e) {
+			// A PrintWriter does not throw, it records the error for checkError()
 		}
-		
-		writer.print("EndPaintSaveFile");
 		writer.close();
-		
 	}
+	
+	/**
+	 * Save this in the binary save file format, see PaintBinaryFileParser.
+	 * @param out closed once the model is written
+	 */
+	public void saveBinary(OutputStream out) throws IOException {
+		this.saveBinary(out, null);
+	}
+	
+	/**
+	 * Save this in the binary save file format, simplifying strokes on the way.
+	 * @param out closed once the model is written
+	 * @param simplifier null to write strokes as they are
+	 */
+	void saveBinary(OutputStream out, StrokeSimplifier simplifier) throws IOException {
+		PaintBinaryWriter writer = new PaintBinaryWriter(out);
+		writer.writeHeader();
+		for (PaintCommand c: this.commandsToWrite()) {
+			(simplifier == null ? c : c.simplified(simplifier)).write(writer);
+		}
+		writer.writeEnd();
+		out.close();
+	}
+	
 	public void reset(){
 		for(PaintCommand c: this.commands){
-			c.deleteObserver(this);
+			c.removeListener(this);
 		}
 		this.commands.clear();
-		this.setChanged();
-		this.notifyObservers();
+		this.index.clear();
+		this.history.clear();
+		this.changed(Change.RESET, null, null);
 	}
 	
 	public void addCommand(PaintCommand command){
 		this.commands.add(command);
-		command.addObserver(this);
-		this.setChanged();
-		this.notifyObservers();
+		this.index.add(command);
+		command.addListener(this);
+		this.changed(Change.ADDED, command.getBounds(), command);
+	}
+	
+	public void removeCommand(PaintCommand command){
+		// The top command, as when an edit is undone, is found without a search
+		int last = this.commands.size()-1;
+		boolean removed = last>=0 && this.commands.get(last)==command ? this.commands.remove(last)!=null : this.commands.remove(command);
+		if(removed) {
+			this.index.remove(command);
+			command.removeListener(this);
+			this.changed(Change.REMOVED, command.getBounds(), command);
+		}
+	}
+	
+	/**
+	 * Add all of commands, in order, notifying listeners once.
+	 * @param commands
+	 */
+	public void addCommands(Collection<? extends PaintCommand> commands){
+		this.beginUpdate();
+		try {
+			this.commands.ensureCapacity(this.commands.size() + commands.size());
+			for(PaintCommand c: commands){
+				this.addCommand(c);
+			}
+		} finally {
+			this.endUpdate();
+		}
+	}
+	
+	/**
+	 * Start a batch of changes to this or its commands. Listeners are not 
+	 * told of changes made in the batch until the matching endUpdate, and 
+	 * then only once. Batches may be nested, only the outermost endUpdate 
+	 * tells them.
+	 */
+	public void beginUpdate(){
+		this.updateDepth++;
+	}
+	
+	/**
+	 * End a batch of changes started with beginUpdate. 
+	 */
+	public void endUpdate(){
+		if(this.updateDepth == 0) {
+			throw new IllegalStateException("endUpdate without beginUpdate");
+		}
+		this.updateDepth--;
+		if(this.updateDepth == 0 && this.updatePending) {
+			Rect damage = this.updateDamage;
+			this.updatePending = false;
+			this.updateDamage = Rect.EMPTY;
+			this.appendedFrom = this.updateAppendedFrom;
+			try {
+				this.notifyChange(this.updateChange, damage, this.updateSource);
+			} finally {
+				this.appendedFrom = -1;
+			}
+		}
+	}
+	
+	/**
+	 * @return the command at the top of the drawing order, null if there are none
+	 */
+	PaintCommand getTopCommand(){
+		return this.commands.isEmpty() ? null : this.commands.get(this.commands.size() - 1);
+	}
+	
+	/**
+	 * While listeners are being told of a BATCH: if all the batch did was add
+	 * commands on top of the drawing, the index of the first of them, so a
+	 * listener need only look at those, see commandsFrom.
+	 * @return the index, -1 if the batch did more than add commands, or
+	 * outside of a BATCH
+	 */
+	int getAppendedFrom(){
+		return this.appendedFrom;
+	}
+	
+	/**
+	 * Have listener told of each change to this and its commands.
+	 */
+	void addListener(PaintModelListener listener){
+		LISTENERS.getAndUpdate(this, listeners -> Listeners.with(listeners, listener));
+	}
+	
+	void removeListener(PaintModelListener listener){
+		LISTENERS.getAndUpdate(this, listeners -> Listeners.without(listeners, listener));
+	}
+	
+	/**
+	 * Let listeners know this changed, now or at the end of the current batch.
+	 * Changes in a batch are reported as one: of the kind of the first, if 
+	 * they are all to the same command and it is only added and changed, 
+	 * otherwise as a BATCH.
+	 * @param change
+	 * @param damage the region of the canvas affected, null if it could be anywhere
+	 * @param source the command that changed, null for a change to this
+	 */
+	void changed(Change change, Rect damage, PaintCommand source){
+		if(this.updateDepth > 0) {
+			this.updateDamage = (damage == null || this.updateDamage == null) ? null : this.updateDamage.union(damage);
+			if(change != Change.ADDED) {
+				this.updateAppendedFrom = -1;
+			} else if(!this.updatePending) {
+				this.updateAppendedFrom = this.commands.size() - 1; // the command just added
+			}
+			if(!this.updatePending) {
+				this.updateChange = change;
+				this.updateSource = source;
+			} else if(source == null || source != this.updateSource
+					|| !(change == this.updateChange || (change == Change.CHANGED && this.updateChange == Change.ADDED))) {
+				this.updateChange = Change.BATCH;
+				this.updateSource = null;
+			}
+			this.updatePending = true;
+			return;
+		}
+		this.notifyChange(change, damage, source);
+	}
+	
+	private void notifyChange(Change change, Rect damage, PaintCommand source){
+		for(PaintModelListener listener: this.listeners) {
+			listener.modelChanged(change, source, damage);
+		}
 	}
 	
 	private ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+	private SpatialIndex index = new SpatialIndex(); // where each of the commands is on the canvas
+	private int updateDepth = 0; // how many batches of changes are open
+	private boolean updatePending = false; // whether there were changes in the open batch
+	private Rect updateDamage = Rect.EMPTY; // the region affected by the open batch, null for everything
+	private Change updateChange = null; // the kind of change the open batch amounts to
+	private PaintCommand updateSource = null; // the only command changed in the open batch, null if several
+	private int updateAppendedFrom = -1; // the index of the first command added in the open batch, -1 if it did more than add
+	private int appendedFrom = -1; // see getAppendedFrom
+	private volatile PaintModelListener[] listeners = NO_LISTENERS; // see Listeners
+	private UndoHistory history = new UndoHistory(); // the edits made to this from the canvas
+
+	/**
+	 * @return the edits made to this, for undo and redo
+	 */
+	UndoHistory getHistory() {
+		return this.history;
+	}
+	
+	/**
+	 * @return the commands of this, in drawing order. Only good for one pass,
+	 * the commands must not be kept.
+	 */
+	Iterable<PaintCommand> commands() {
+		return this.commands;
+	}
+	
+	/**
+	 * @return the commands of this, in drawing order, to be written out. A
+	 * model may hand out the same object for each of them, see
+	 * ColumnarPaintModel.
+	 */
+	Iterable<PaintCommand> commandsToWrite() {
+		return this.commands();
+	}
+	
+	/**
+	 * @return the commands of this from index on, in drawing order, see getAppendedFrom
+	 */
+	Iterable<PaintCommand> commandsFrom(int index) {
+		return this.commands.subList(index, this.commands.size());
+	}
 
 	public void executeAll(GraphicsContext g) {
-		for(PaintCommand c: this.commands){
+		for(PaintCommand c: this.commands()){
 			c.execute(g);
 		}
 	}
 	
 	/**
-	 * We Observe our model components, the PaintCommands
+	 * Execute, in order, only the commands that might paint inside region.
+	 * @param g
+	 * @param region
+	 */
+	public void executeAll(GraphicsContext g, Rect region) {
+		for(PaintCommand c: this.getCommandsIn(region.grow(PaintCommand.STROKE_MARGIN))){
+			c.execute(g);
+		}
+	}
+	
+	/**
+	 * @return the commands whose bounds contain (x,y), bottom most first
+	 */
+	public List<PaintCommand> getCommandsAt(int x, int y) {
+		return this.index.query(x, y);
+	}
+	
+	/**
+	 * @return the commands whose bounds intersect region, bottom most first
+	 */
+	public List<PaintCommand> getCommandsIn(Rect region) {
+		return this.index.query(region);
+	}
+	
+	/**
+	 * We listen to our model components, the PaintCommands
 	 */
 	@Override
-	public void update(Observable o, Object arg) {
-		this.setChanged();
-		this.notifyObservers();
+	public void commandChanged(PaintCommand command, Rect damage) {
+		this.index.update(command);
+		this.changed(Change.CHANGED, damage, command);
 	}
 }
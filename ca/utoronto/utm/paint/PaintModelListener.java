@@ -0,0 +1,26 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * Told of each change to the PaintModels it listens to, see
+ * PaintModel.addListener: what kind of change it was, the command it was
+ * made to, and the region of the canvas it affected.
+ *
+ * @author
+ *
+ */
+interface PaintModelListener {
+	enum Change {
+		ADDED, // command was added on top of the drawing
+		REMOVED, // command was removed
+		CHANGED, // command, which is in the model, changed
+		BATCH, // a batch of changes to more than one command, or to shapes the model has no command for
+		RESET // the model was emptied, there is no command and the damage is everything
+	}
+
+	/**
+	 * @param change what happened
+	 * @param command the command it happened to, null for BATCH and RESET
+	 * @param damage the region of the canvas affected, null if it could be anywhere
+	 */
+	void modelChanged(Change change, PaintCommand command, Rect damage);
+}
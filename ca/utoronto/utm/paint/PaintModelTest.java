@@ -0,0 +1,49 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PaintModelTest {
+
+	@Test
+	public void modelEventsTest() {
+		PaintModel paintModel = new PaintModel();
+		List<String> events = new ArrayList<String>();
+		PaintModelListener listener = (change, command, damage) ->
+				events.add(change + " " + (command == null ? "-" : command.getClass().getSimpleName()) + " " + damage);
+		paintModel.addListener(listener);
+
+		CircleCommand circle = new CircleCommand(new Point(10, 10), 5);
+		paintModel.addCommand(circle);
+		circle.setRadius(6);
+		paintModel.removeCommand(circle);
+		assertEquals("Add, change, remove", List.of(
+				"ADDED CircleCommand " + new Rect(5, 5, 15, 15),
+				"CHANGED CircleCommand " + new Rect(4, 4, 16, 16),
+				"REMOVED CircleCommand " + new Rect(4, 4, 16, 16)), events);
+
+		// A batch is one event, of the first kind if it is all to one command
+		events.clear();
+		paintModel.beginUpdate();
+		paintModel.addCommand(circle);
+		circle.setRadius(5);
+		paintModel.endUpdate();
+		paintModel.beginUpdate();
+		circle.setRadius(4);
+		paintModel.addCommand(new CircleCommand(new Point(0, 0), 1));
+		paintModel.endUpdate();
+		assertEquals("Batches", List.of(
+				"ADDED CircleCommand " + new Rect(4, 4, 16, 16),
+				"BATCH - " + new Rect(-1, -1, 15, 15)), events);
+
+		events.clear();
+		paintModel.reset();
+		circle.setRadius(3);
+		paintModel.removeListener(listener);
+		paintModel.addCommand(circle);
+		assertEquals("Reset, then nothing once removed", List.of("RESET - null"), events);
+	}
+}
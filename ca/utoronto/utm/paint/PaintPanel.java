@@ -1,19 +1,53 @@
 package ca.utoronto.utm.paint;
 
-import java.util.Observable;
-import java.util.Observer;
-
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
+import javafx.geometry.Pos;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.StackPane;
 
-class PaintPanel extends StackPane implements Observer, EventHandler<MouseEvent> {
+class PaintPanel extends StackPane implements PaintModelListener, EventHandler<MouseEvent> {
 
 	private PaintModel model; 
 	private Canvas canvas;
 	private ShapeManipulatorStrategy strategy;
+	private TileCache tiles; // the model already drawn, less the shape being edited
+	private RenderStatistics statistics = RenderStatistics.get();
+	private Label frameTimes = new Label(); // shown over the canvas, if asked for
+	
+	// The view of the drawing, which has no edges: a pixel of the canvas at
+	// (x,y) shows the model at ((x+panX)/scale, (y+panY)/scale). The pan is
+	// kept to whole pixels so the cached tiles line up with the canvas pixels.
+	static final double MIN_SCALE = 1/64.0, MAX_SCALE = 64, ZOOM_STEP = 1.25; // per notch of the wheel
+	private double scale = 1;
+	private int panX = 0, panY = 0;
+	private double dragX, dragY; // where the mouse was, while panning with the middle button
+	
+	// Model changes only mark the panel dirty, the redraw happens at most 
+	// once per frame, on the next pulse. Only the damaged region is redrawn.
+	private boolean dirty = false;
+	private Rect damage = Rect.EMPTY; // the region to redraw, null for everything
+	private AnimationTimer repaintTimer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			this.stop(); // run again only when there is something new to draw
+			if (PaintPanel.this.dirty) {
+				Rect damage = PaintPanel.this.damage;
+				PaintPanel.this.dirty = false;
+				PaintPanel.this.damage = Rect.EMPTY;
+				if (damage == null) {
+					PaintPanel.this.repaint();
+				} else {
+					PaintPanel.this.repaint(damage);
+				}
+			}
+		}
+	};
 	
 	public PaintPanel(PaintModel model) {
 
@@ -23,6 +57,20 @@ class PaintPanel extends StackPane implements Observer, EventHandler<MouseEvent>
 		// containing pane serves as the background color of the canvas.
 		this.setStyle("-fx-background-color: white");
 		this.canvas.addEventHandler(MouseEvent.ANY, this);
+		this.canvas.setOnScroll(event -> this.scrolled(event));
+		
+		// The canvas fills the panel, however large the window is made
+		this.setMinSize(0, 0);
+		this.canvas.widthProperty().bind(this.widthProperty());
+		this.canvas.heightProperty().bind(this.heightProperty());
+		this.canvas.widthProperty().addListener(observable -> this.resized());
+		this.canvas.heightProperty().addListener(observable -> this.resized());
+		
+		this.frameTimes.setMouseTransparent(true);
+		StackPane.setAlignment(this.frameTimes, Pos.TOP_LEFT);
+		this.getChildren().add(this.frameTimes);
+		this.setShowFrameTimes(Boolean.getBoolean("paint.render.overlay"));
+		
 		this.setPaintModel(model);
 		
 	}
@@ -34,31 +82,182 @@ class PaintPanel extends StackPane implements Observer, EventHandler<MouseEvent>
 	public void setPaintModel(PaintModel model) {
 		if(model==null)return;
 		if(this.model!=null) {
-			this.model.deleteObserver(this);
+			this.model.removeListener(this);
 		}
 		this.model = model;
+		this.tiles = this.newTiles(this.scale);
 		this.setShapeManipulatorStrategy(new ShapeManipulatorStrategy(this.model)); // set to the empty strategy
-		this.model.addObserver(this);
-		this.repaint();
+		this.model.addListener(this);
+		this.requestRepaint();
+	}
+	
+	/**
+	 * Arrange for the panel to be redrawn on the next frame. However many 
+	 * times this is called before then, the panel is redrawn once.
+	 */
+	public void requestRepaint() {
+		this.requestRepaint(null);
+	}
+	
+	/**
+	 * Arrange for region of the panel to be redrawn on the next frame.
+	 * @param region the region to redraw, null for the whole panel
+	 */
+	public void requestRepaint(Rect region) {
+		this.damage = (region == null || this.damage == null) ? null : this.damage.union(region);
+		if (!this.dirty) {
+			this.dirty = true;
+			this.repaintTimer.start();
+		}
+	}
+	
+	/**
+	 * Show, or hide, the frame rate and 99th percentile frame time over the canvas.
+	 * @param show
+	 */
+	public void setShowFrameTimes(boolean show) {
+		this.frameTimes.setVisible(show);
+	}
+	
+	/**
+	 * @return the pixels of the canvas
+	 */
+	private Rect getCanvasBounds() {
+		return new Rect(0, 0, (int)Math.ceil(this.canvas.getWidth()), (int)Math.ceil(this.canvas.getHeight()));
 	}
 	
 	public void repaint() {
+		this.repaint(this.tiles.toModel(this.getCanvasBounds().offset(this.panX, this.panY)));
+	}
+	
+	/**
+	 * Redraw just region of the model, clearing and clipping to it, and copying 
+	 * in the cached tiles that reach into it. Only the live shape is drawn afresh.
+	 * Nothing outside the canvas is drawn, so the cost depends on what is in 
+	 * view, not on the size of the drawing.
+	 * @param region
+	 */
+	public void repaint(Rect region) {
+		Rect reach = region.union(this.tiles.updateLive()).grow(PaintCommand.STROKE_MARGIN);
+		Rect clip = this.tiles.toPixels(reach).grow(PaintCommand.STROKE_MARGIN).offset(-this.panX, -this.panY)
+				.intersection(this.getCanvasBounds());
+		if (clip.isEmpty()) return;
+		this.statistics.beginFrame();
 		GraphicsContext g = this.canvas.getGraphicsContext2D();
-		g.clearRect(0, 0, this.getWidth(), this.getHeight());
-		this.model.executeAll(g);
+		g.save();
+		g.beginPath();
+		g.rect(clip.minX, clip.minY, clip.getWidth(), clip.getHeight());
+		g.clip();
+		g.clearRect(clip.minX, clip.minY, clip.getWidth(), clip.getHeight());
+		g.translate(-this.panX, -this.panY);
+		this.tiles.draw(g, clip.offset(this.panX, this.panY));
+		g.restore();
+		this.statistics.endFrame(clip);
+		if (this.frameTimes.isVisible()) {
+			this.frameTimes.setText(String.format("%d fps, p99 %.1f ms", this.statistics.getFramesPerSecond(), this.statistics.getP99FrameMillis()));
+		}
 	}
 
 	@Override
-	public void update(Observable o, Object arg) {
-		this.repaint();
+	public void modelChanged(Change change, PaintCommand command, Rect damage) {
+		// Changes to the live shape are drawn over the tiles, anything else
+		// means the tiles under it are out of date
+		if (command == null || !command.equals(this.tiles.getLive())) {
+			this.tiles.invalidate(damage);
+		}
+		this.requestRepaint(damage);
 	}
 
+	/**
+	 * Scroll to pan, or with the shortcut key held down, to zoom about the mouse.
+	 */
+	private void scrolled(ScrollEvent event) {
+		if (event.isShortcutDown()) {
+			this.zoom(this.scale * Math.pow(ZOOM_STEP, event.getDeltaY() / 40), event.getX(), event.getY()); // 40 per notch
+		} else {
+			this.pan((int)Math.round(-event.getDeltaX()), (int)Math.round(-event.getDeltaY()));
+		}
+		event.consume();
+	}
+	
+	/**
+	 * @return an empty tile cache for the model at scale, sized for the canvas
+	 */
+	private TileCache newTiles(double scale) {
+		TileCache tiles = new TileCache(this.model, scale);
+		tiles.setViewSize(this.canvas.getWidth(), this.canvas.getHeight());
+		return tiles;
+	}
+	
+	private void resized() {
+		this.tiles.setViewSize(this.canvas.getWidth(), this.canvas.getHeight());
+		this.requestRepaint();
+	}
+	
+	/**
+	 * Move the view of the drawing by dx, dy pixels.
+	 */
+	public void pan(int dx, int dy) {
+		if (dx == 0 && dy == 0) return;
+		this.panX += dx;
+		this.panY += dy;
+		this.requestRepaint();
+	}
+	
+	/**
+	 * Change the scale of the view, keeping the point of the drawing under
+	 * the canvas pixel (x,y) where it is.
+	 */
+	public void zoom(double scale, double x, double y) {
+		scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+		if (scale == this.scale) return;
+		double modelX = (x + this.panX) / this.scale, modelY = (y + this.panY) / this.scale;
+		this.scale = scale;
+		this.panX = (int)Math.round(modelX * scale - x);
+		this.panY = (int)Math.round(modelY * scale - y);
+		this.tiles = this.newTiles(scale); // the old tiles are of the old scale
+		this.requestRepaint();
+	}
+	
+	/**
+	 * Pan with the middle button, and pass anything else on to the strategy
+	 * in the coordinates of the model.
+	 */
 	@Override
 	public void handle(MouseEvent event) {
-		this.strategy.handle(event);
+		if (event.getButton() == MouseButton.MIDDLE || event.isMiddleButtonDown()) {
+			if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+				this.pan((int)Math.round(this.dragX - event.getX()), (int)Math.round(this.dragY - event.getY()));
+			}
+			this.dragX = Math.round(event.getX());
+			this.dragY = Math.round(event.getY());
+			return;
+		}
+		this.strategy.handle(this.toModel(event));
+	}
+	
+	/**
+	 * @return event, with its x and y in the coordinates of the model
+	 */
+	private MouseEvent toModel(MouseEvent event) {
+		if (this.scale == 1 && this.panX == 0 && this.panY == 0) return event;
+		double x = (event.getX() + this.panX) / this.scale, y = (event.getY() + this.panY) / this.scale;
+		return new MouseEvent(event.getSource(), event.getTarget(), event.getEventType(), x, y,
+				event.getScreenX(), event.getScreenY(), event.getButton(), event.getClickCount(),
+				event.isShiftDown(), event.isControlDown(), event.isAltDown(), event.isMetaDown(),
+				event.isPrimaryButtonDown(), event.isMiddleButtonDown(), event.isSecondaryButtonDown(),
+				event.isSynthesized(), event.isPopupTrigger(), event.isStillSincePress(), event.getPickResult());
 	}
 	public void setShapeManipulatorStrategy(ShapeManipulatorStrategy strategy) {
+		this.finishEdit();
 		this.strategy = strategy;
 	}
+	
+	/**
+	 * Complete any shape still being drawn, so the model can be changed by other means.
+	 */
+	public void finishEdit() {
+		if (this.strategy != null) this.strategy.finish();
+	}
 }
 
@@ -0,0 +1,258 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parse a Version 1.0 PaintSaveFile on several cores. Shape blocks in the
+ * format are independent of each other, so the file is cut into chunks at
+ * lines that start a shape, each chunk is parsed by its own PaintFileParser
+ * on a ForkJoinPool, and the resulting commands are added to the paint model
+ * in file order.
+ *
+ * The outcome is the same as parsing the file with a single PaintFileParser,
+ * including the line number in any error message. A chunk can only be parsed
+ * on its own if the chunk before it ended cleanly between shapes; when that is
+ * not the case the rest of the file is parsed sequentially, which yields the
+ * error a sequential parse would have reported.
+ *
+ * @author
+ *
+ */
+public class ParallelPaintFileParser {
+	private static final int DEFAULT_MIN_CHUNK_SIZE = 1 << 20; // bytes
+
+	private ForkJoinPool pool;
+	private int minChunkSize; // files are not cut into chunks smaller than this
+	private String errorMessage = "";
+	private ParseEvent event = null; // for the parse in progress, if Flight Recorder wants it
+
+	public ParallelPaintFileParser() {
+		this(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool the pool to parse chunks on
+	 * @param minChunkSize the smallest chunk, in bytes, worth parsing on its own
+	 */
+	public ParallelPaintFileParser(ForkJoinPool pool, int minChunkSize) {
+		this.pool = pool;
+		this.minChunkSize = Math.max(1, minChunkSize);
+	}
+
+	/**
+	 * @return the error message resulting from an unsuccessful parse
+	 */
+	public String getErrorMessage() {
+		return this.errorMessage;
+	}
+
+	/**
+	 * Parse the file at path as a Paint Save File Format file, adding the
+	 * resulting commands to paintModel. The file is memory mapped and shared 
+	 * by all of the chunks. A file too large to map in one piece is parsed
+	 * sequentially.
+	 *
+	 * @param path the file to parse
+	 * @param paintModel the paint model to add the commands to
+	 * @return whether the complete file was successfully parsed
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean parse(Path path, PaintModel paintModel) throws IOException {
+		MappedByteBuffer buffer = PaintFileParser.map(path);
+		if (buffer == null) {
+			PaintFileParser parser = new PaintFileParser();
+			boolean result = parser.parse(path, paintModel);
+			this.errorMessage = parser.getErrorMessage();
+			return result;
+		}
+		ParseEvent event = new ParseEvent();
+		if (event.isEnabled()) {
+			event.file = path.toString();
+			event.format = "text, parallel";
+			event.bytes = buffer.limit();
+			event.begin();
+			this.event = event;
+		}
+		boolean result = this.parse(buffer, paintModel);
+		if (this.event != null) {
+			this.event.finish(result, this.errorMessage);
+			this.event = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Parse buffer[0,limit) as a Paint Save File Format file, adding the
+	 * resulting commands to paintModel.
+	 */
+	boolean parse(ByteBuffer buffer, PaintModel paintModel) {
+		this.errorMessage = "";
+		int size = buffer.limit();
+		int chunks = (int) Math.min(this.pool.getParallelism() * 4L, Math.max(1, size / this.minChunkSize));
+
+		ArrayList<Chunk> pieces = this.split(buffer, size, chunks);
+		this.runAll(pieces);
+
+		// Add the results to the model in file order, as one update
+		paintModel.beginUpdate();
+		try {
+			return this.merge(buffer, pieces, paintModel);
+		} finally {
+			paintModel.endUpdate();
+		}
+	}
+
+	private boolean merge(ByteBuffer buffer, ArrayList<Chunk> pieces, PaintModel paintModel) {
+		int size = buffer.limit();
+		int lines = 0; // lines in the chunks added so far
+		for (int i = 0; i < pieces.size(); i++) {
+			Chunk chunk = pieces.get(i);
+			boolean last = i == pieces.size() - 1;
+			if (chunk.parser.getErrorMessage().equals("") && !last && chunk.parser.getState() != 1) {
+				// The chunk ended part way through a shape, or after the end of the file.
+				// Only a sequential parse of the rest of the file reports this correctly.
+				Chunk rest = new Chunk(buffer, chunk.from, size, chunk.state, lines);
+				rest.compute();
+				return this.finish(rest, paintModel, 0);
+			}
+			if (!chunk.parser.getErrorMessage().equals("") || last) {
+				return this.finish(chunk, paintModel, lines);
+			}
+			this.addAll(chunk, paintModel);
+			lines += chunk.parser.getLineNumber();
+		}
+		return true;
+	}
+
+	/**
+	 * Add the commands from the final chunk to be parsed, and report its outcome.
+	 */
+	private boolean finish(Chunk chunk, PaintModel paintModel, int lines) {
+		this.addAll(chunk, paintModel);
+		chunk.parser.offsetLineNumbers(lines);
+		if (this.event != null) this.event.lines = chunk.parser.getLineNumber();
+		this.errorMessage = chunk.parser.getErrorMessage();
+		return chunk.result;
+	}
+
+	private void addAll(Chunk chunk, PaintModel paintModel) {
+		paintModel.addCommands(chunk.commands);
+		if (this.event != null) {
+			for (PaintCommand c : chunk.commands) {
+				this.event.count(c);
+			}
+		}
+	}
+
+	/**
+	 * Cut buffer[0,size) into about the given number of chunks. Every chunk
+	 * but the first starts at a line that starts a shape.
+	 */
+	private ArrayList<Chunk> split(ByteBuffer buffer, int size, int chunks) {
+		// Look for the first shape at or after each of the evenly spaced targets,
+		// searching no further than the next target.
+		ArrayList<BoundarySearch> searches = new ArrayList<BoundarySearch>();
+		for (int k = 1; k < chunks; k++) {
+			long from = (long) size * k / chunks, to = (long) size * (k + 1) / chunks;
+			searches.add(new BoundarySearch(buffer, (int) from, (int) to, size));
+		}
+		this.runAll(searches);
+
+		ArrayList<Chunk> pieces = new ArrayList<Chunk>();
+		int start = 0;
+		for (BoundarySearch search : searches) {
+			if (search.boundary > start) {
+				pieces.add(new Chunk(buffer, start, search.boundary, pieces.isEmpty() ? 0 : 1, 0));
+				start = search.boundary;
+			}
+		}
+		pieces.add(new Chunk(buffer, start, size, pieces.isEmpty() ? 0 : 1, 0));
+		return pieces;
+	}
+
+	/**
+	 * Run all of tasks on this.pool, returning when they are all complete.
+	 */
+	private void runAll(final ArrayList<? extends ForkJoinTask<?>> tasks) {
+		this.pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Find the start of the first line in [from,to) that starts a shape block.
+	 */
+	private static class BoundarySearch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private ByteBuffer buffer;
+		private int from, to, size;
+		int boundary = -1; // the result, -1 if there is no such line
+
+		BoundarySearch(ByteBuffer buffer, int from, int to, int size) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.size = size;
+		}
+
+		@Override
+		protected void compute() {
+			PaintFileScanner scanner = new PaintFileScanner();
+			AsciiLine line = new AsciiLine(this.buffer);
+			int pos = AsciiLine.lineStart(this.buffer, this.from, this.size);
+			while (pos < this.to) {
+				int eol = AsciiLine.lineEnd(this.buffer, pos, this.size);
+				line.set(pos, eol);
+				scanner.reset(line);
+				if (scanner.matches("Circle") || scanner.matches("Rectangle")
+						|| scanner.matches("Squiggle") || scanner.matches("Polyline")) {
+					this.boundary = pos;
+					return;
+				}
+				pos = AsciiLine.nextLine(this.buffer, eol, this.size);
+			}
+		}
+	}
+
+	/**
+	 * Parse buffer[from,to) with a parser of its own, collecting the commands.
+	 */
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private ByteBuffer buffer;
+		int from, to, state, lines; // lines is the number of lines before from, if known
+		boolean result;
+		ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+		PaintFileParser parser = new PaintFileParser() {
+			@Override
+			void addCommand(PaintCommand command) {
+				Chunk.this.commands.add(command);
+			}
+		};
+
+		Chunk(ByteBuffer buffer, int from, int to, int state, int lines) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.state = state;
+			this.lines = lines;
+		}
+
+		@Override
+		protected void compute() {
+			this.result = this.parser.parse(this.buffer, this.from, this.to, this.state, this.lines);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package ca.utoronto.utm.paint;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one parse of a save file, recorded when a
+ * recording with this event enabled is running, for example one started
+ * with -XX:StartFlightRecording. The event's duration is the time taken by
+ * the parse. When no recording wants the event, the parsers skip counting
+ * and it costs next to nothing.
+ *
+ * @author
+ *
+ */
+@Name("ca.utoronto.utm.paint.Parse")
+@Label("Paint File Parse")
+@Category("Paint")
+@Description("The parse of one paint save file")
+class ParseEvent extends Event {
+	@Label("File")
+	String file;
+
+	@Label("Format")
+	String format;
+
+	@Label("Size")
+	@Description("The size of the file, 0 if it was read through a Reader, which sees only characters")
+	@DataAmount
+	long bytes;
+
+	@Label("Lines")
+	int lines;
+
+	@Label("Circles")
+	int circles;
+
+	@Label("Rectangles")
+	int rectangles;
+
+	@Label("Squiggles")
+	int squiggles;
+
+	@Label("Polylines")
+	int polylines;
+
+	@Label("Points")
+	@Description("Points in the squiggles and polylines")
+	long points;
+
+	@Label("Succeeded")
+	boolean succeeded;
+
+	@Label("Error")
+	String error;
+
+	/**
+	 * Count command among the shapes read.
+	 */
+	void count(PaintCommand command) {
+		if (command instanceof CircleCommand) {
+			this.circles++;
+		} else if (command instanceof RectangleCommand) {
+			this.rectangles++;
+		} else if (command instanceof SquiggleCommand) {
+			this.squiggles++;
+			this.points += ((SquiggleCommand) command).getPointBuffer().size();
+		} else if (command instanceof PolyLineCommand) {
+			this.polylines++;
+			this.points += ((PolyLineCommand) command).getPointBuffer().size();
+		}
+	}
+
+	/**
+	 * Record the outcome of the parse and commit this, if it is wanted.
+	 */
+	void finish(boolean succeeded, String errorMessage) {
+		this.end();
+		if (this.shouldCommit()) {
+			this.succeeded = succeeded;
+			this.error = errorMessage.equals("") ? null : errorMessage;
+			this.commit();
+		}
+	}
+}
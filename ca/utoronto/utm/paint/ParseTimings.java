@@ -0,0 +1,51 @@
+package ca.utoronto.utm.paint;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent by PaintFileParser in each state of its state machine, over
+ * every parse in the JVM, to find which kinds of line are slow to parse.
+ * Collected only when the system property paint.parse.timing is true, and
+ * printed to System.err when the JVM exits.
+ *
+ * @author
+ *
+ */
+class ParseTimings {
+	static final int STATES = 23; // states 0..22 of PaintFileParser
+
+	private AtomicLongArray lines = new AtomicLongArray(STATES);
+	private AtomicLongArray nanos = new AtomicLongArray(STATES);
+
+	/**
+	 * @return the timings to collect into, or null if timing is off
+	 */
+	static ParseTimings configured() {
+		if (!Boolean.getBoolean("paint.parse.timing")) {
+			return null;
+		}
+		ParseTimings timings = new ParseTimings();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(timings)));
+		return timings;
+	}
+
+	/**
+	 * Record that a line parsed in state took nanos.
+	 */
+	void record(int state, long nanos) {
+		this.lines.incrementAndGet(state);
+		this.nanos.addAndGet(state, nanos);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("state       lines    total ms   ns/line\n");
+		for (int i = 0; i < STATES; i++) {
+			long n = this.lines.get(i), t = this.nanos.get(i);
+			if (n > 0) {
+				s.append(String.format("%5d %11d %11.1f %9d%n", i, n, t / 1e6, t / n));
+			}
+		}
+		return s.toString();
+	}
+}
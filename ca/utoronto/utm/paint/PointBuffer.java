@@ -0,0 +1,137 @@
+package ca.utoronto.utm.paint;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable list of points, stored as x,y pairs in one int[]. Each point
+ * costs 8 bytes, instead of a Point object and its reference, or a pair of
+ * boxed Integers.
+ *
+ * @author
+ *
+ */
+class PointBuffer {
+	private static final int[] NONE = new int[0];
+
+	private int[] coordinates = NONE; // x0,y0,x1,y1,...
+	private int size = 0; // points, not ints
+
+	int size() {
+		return this.size;
+	}
+
+	int getX(int i) {
+		return this.coordinates[2 * this.check(i)];
+	}
+
+	int getY(int i) {
+		return this.coordinates[2 * this.check(i) + 1];
+	}
+
+	void add(int x, int y) {
+		if (2 * this.size == this.coordinates.length) {
+			int capacity = Math.max(8, this.size + (this.size >> 1)); // in points
+			if (capacity > Integer.MAX_VALUE / 2 - 8) {
+				throw new OutOfMemoryError("Too many points");
+			}
+			this.coordinates = Arrays.copyOf(this.coordinates, 2 * capacity);
+		}
+		this.coordinates[2 * this.size] = x;
+		this.coordinates[2 * this.size + 1] = y;
+		this.size++;
+	}
+
+	void set(int i, int x, int y) {
+		this.check(i);
+		this.coordinates[2 * i] = x;
+		this.coordinates[2 * i + 1] = y;
+	}
+
+	void removeLast() {
+		this.check(this.size - 1);
+		this.size--;
+	}
+
+	/**
+	 * Release the space reserved for points not yet added.
+	 */
+	void trimToSize() {
+		if (2 * this.size < this.coordinates.length) {
+			this.coordinates = this.size == 0 ? NONE : Arrays.copyOf(this.coordinates, 2 * this.size);
+		}
+	}
+
+	/**
+	 * @return the x coordinates of the points, as strokePolyline takes them
+	 */
+	double[] getXs() {
+		double[] xs = new double[this.size];
+		for (int i = 0; i < this.size; i++) {
+			xs[i] = this.coordinates[2 * i];
+		}
+		return xs;
+	}
+
+	/**
+	 * @return the y coordinates of the points, as strokePolyline takes them
+	 */
+	double[] getYs() {
+		double[] ys = new double[this.size];
+		for (int i = 0; i < this.size; i++) {
+			ys[i] = this.coordinates[2 * i + 1];
+		}
+		return ys;
+	}
+
+	/**
+	 * Copy into xs and ys the points that are at least spacing apart, in
+	 * either direction, from the point kept before them, and the last point,
+	 * so that a stroke drawn through the copies differs from the whole stroke
+	 * by less than spacing. Used to skip segments too small to see.
+	 * @param xs,ys at least size() long
+	 * @return the number of points copied
+	 */
+	int thin(double spacing, double[] xs, double[] ys) {
+		if (this.size == 0) return 0;
+		int n = 0;
+		int x = this.coordinates[0], y = this.coordinates[1];
+		xs[n] = x;
+		ys[n++] = y;
+		for (int i = 1; i < this.size; i++) {
+			int nx = this.coordinates[2 * i], ny = this.coordinates[2 * i + 1];
+			if (Math.abs(nx - x) >= spacing || Math.abs(ny - y) >= spacing || i == this.size - 1) {
+				x = nx;
+				y = ny;
+				xs[n] = x;
+				ys[n++] = y;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return a read only view of the points, creating a Point as each is asked for
+	 */
+	List<Point> asList() {
+		return new AbstractList<Point>() {
+			@Override
+			public Point get(int i) {
+				return new Point(PointBuffer.this.getX(i), PointBuffer.this.getY(i));
+			}
+
+			@Override
+			public int size() {
+				return PointBuffer.this.size;
+			}
+		};
+	}
+
+	private int check(int i) {
+		if (i < 0 || i >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+		}
+		return i;
+	}
+}
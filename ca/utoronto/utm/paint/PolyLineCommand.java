@@ -1,70 +1,144 @@
 package ca.utoronto.utm.paint;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.List;
 
 import javafx.scene.canvas.GraphicsContext;
 
 public class PolyLineCommand extends PaintCommand{
-	private ArrayList<Integer> pointsX=new ArrayList<Integer>();
-	private ArrayList<Integer> pointsY=new ArrayList<Integer>();
+	private PointBuffer points=new PointBuffer();
+	// Grown as points are added or moved, never shrunk, so it may be larger than needed
+	private Rect bounds = Rect.EMPTY; 
 
 	public void add(Point p){ 
-		this.pointsX.add(p.x);
-		this.pointsY.add(p.y);
-		this.setChanged();
-		this.notifyObservers();
+		this.add(p.x, p.y);
+	}
+	public void add(int x, int y){ 
+		this.points.add(x, y);
+		this.bounds = this.bounds.union(x, y);
+		this.changed(this.lastSegment());
 	}
 	public void remove(){ 
-		this.pointsX.remove(this.pointsX.size() - 1);
-		this.pointsY.remove(this.pointsY.size() - 1);
-		this.setChanged();
-		this.notifyObservers();
+		Rect damage = this.lastSegment();
+		this.points.removeLast();
+		this.changed(damage);
 	}
 	public void change(int mouseX, int mouseY){ 
-		this.pointsX.set(this.pointsX.size() - 1, mouseX);
-		this.pointsY.set(this.pointsY.size() - 1, mouseY);
-		this.setChanged();
-		this.notifyObservers();
+		Rect damage = this.lastSegment();
+		this.points.set(this.points.size() - 1, mouseX, mouseY);
+		this.bounds = this.bounds.union(mouseX, mouseY);
+		this.changed(damage.union(this.lastSegment()));
+	}
+	
+	/**
+	 * @return the bounds of the segment ending at the last point
+	 */
+	private Rect lastSegment() {
+		int n = this.points.size();
+		if (n == 0) return Rect.EMPTY;
+		int i = Math.max(0, n - 2);
+		return Rect.of(this.points.getX(i), this.points.getY(i), this.points.getX(n - 1), this.points.getY(n - 1));
+	}
+	
+	@Override
+	String getShapeName() {
+		return "Polyline";
+	}
+
+	@Override
+	Rect getBounds() {
+		return this.bounds;
 	}
 	public double[] getPointsX(){
-		double[] xs = new double[this.pointsX.size()];
-		for (int i = 0; i<this.pointsX.size(); i++) {
-			xs[i] = (double)this.pointsX.get(i);
-		}
-		return xs; 
+		return this.points.getXs(); 
 	}
 	public double[] getPointsY(){ 
-		double[] ys = new double[this.pointsY.size()];
-		for (int i = 0; i<this.pointsY.size(); i++) {
-			ys[i] = (double)this.pointsY.get(i);
+		return this.points.getYs();
+	}
+	/**
+	 * @return a read only view of the points of this
+	 */
+	public List<Point> getPoints(){ return this.points.asList(); }
+	PointBuffer getPointBuffer(){ return this.points; }
+	
+	/**
+	 * Drop the points of this from index from on, as when they are about to be replaced.
+	 */
+	void truncate(int from){
+		while(this.points.size() > from) {
+			this.points.removeLast();
+		}
+		this.changed(this.bounds);
+	}
+	
+	/**
+	 * Drop the points of this that simplifier considers redundant.
+	 */
+	void simplify(StrokeSimplifier simplifier){
+		PointBuffer simplified = simplifier.simplify(this.points);
+		if (simplified.size() < this.points.size()) {
+			this.points = simplified;
+			this.changed(this.bounds);
 		}
-		return ys;
+	}
+	
+	@Override
+	PaintCommand simplified(StrokeSimplifier simplifier) {
+		PointBuffer simplified = simplifier.simplify(this.points);
+		if (simplified.size() == this.points.size()) return this;
+		PolyLineCommand copy = new PolyLineCommand();
+		copy.setColor(this.getColor());
+		copy.setFill(this.isFill());
+		copy.points = simplified;
+		copy.bounds = this.bounds;
+		return copy;
 	}
 
-	public String report() {
-		int r = (int)(this.getColor().getRed() * 255);
-		int g = (int)(this.getColor().getGreen() * 255);
-		int b = (int)(this.getColor().getBlue() * 255);
+	@Override
+	void write(PaintFileWriter writer) throws IOException {
+		writer.writeShape("Polyline", this.getColor(), this.isFill());
+		writer.append("\tpoints\n");
+		for (int i = 0; i < this.points.size(); i++) {
+			writer.append("\t\tpoint:").appendPoint(this.points.getX(i), this.points.getY(i)).append('\n');
+		}
+		writer.append("\tend points\n");
+		writer.append("EndPolyline\n");
+	}
 
-		String s = "";
-		s+="Polyline\n";
-		s+="\tcolor:"+r+","+g+","+b+"\n";
-		s+="\tfilled:"+this.isFill()+"\n";
-		s+="\tpoints\n";
-		for (int i = 0; i < this.pointsX.size(); i++) {
-			s+="\t\tpoint:(" + this.pointsX.get(i) + "," + this.pointsY.get(i) + ")\n";
+	@Override
+	void write(PaintBinaryWriter writer) throws IOException {
+		writer.writeShape(PaintBinaryFileParser.POLYLINE, this.getColor(), this.isFill());
+		writer.writePointCount(this.points.size());
+		for (int i = 0; i < this.points.size(); i++) {
+			writer.writePoint(this.points.getX(i), this.points.getY(i));
 		}
-		s+= "\tend points\n";
-		s+="EndPolyline\n";
-		return s;
 	}
 
 	@Override
 	public void execute(GraphicsContext g) {
 		double[] pointsX = this.getPointsX();
 		double[] pointsY = this.getPointsY();
-		int sizeX = this.pointsX.size();
+		int sizeX = this.points.size();
 		g.setStroke(this.getColor());
 		g.strokePolyline(pointsX, pointsY, sizeX);
 	}
+
+	@Override
+	void execute(GraphicsContext g, double scale) {
+		if(scale>=1) {
+			this.execute(g);
+			return;
+		}
+		// Segments under a pixel long are not drawn, their neighbours join up instead
+		double[] xs = new double[this.points.size()], ys = new double[this.points.size()];
+		int n = this.points.thin(1/scale, xs, ys);
+		g.setStroke(this.getColor());
+		g.strokePolyline(xs, ys, n);
+	}
+
+	@Override
+	void execute(Raster r) {
+		r.setStroke(this.getArgb());
+		r.strokePolyline(this.getPointsX(), this.getPointsY(), this.points.size());
+	}
 }
@@ -19,11 +19,17 @@ class PolygonManipulatorStrategy extends ShapeManipulatorStrategy {
 		}
 		else {
 			this.polylineCommand.add(new Point((int)e.getX(), (int)e.getY()));
+			this.recordEdit(new UndoHistory.PointsAppended(this.polylineCommand, 1));
 		}
 	}
 
 	@Override
 	public void mouseRightClicked(MouseEvent e) {
+		this.finish();
+	}
+	
+	@Override
+	void finish() {
 		if(this.clicked) {
 			this.clicked = false;
 			this.polylineCommand.remove();
@@ -0,0 +1,230 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * A drawing surface over an int[] of ARGB pixels, offering the part of
+ * JavaFX's GraphicsContext that PaintCommands use, so that commands can be
+ * drawn without a display. Colors are packed ARGB ints too, see
+ * PaintCommand.getArgb, so nothing here needs JavaFX. Shapes are anti-aliased by sampling each pixel
+ * on their edges SAMPLES x SAMPLES times, and strokes are 1 pixel wide with
+ * square caps, as GraphicsContext draws them by default. Pixel (i,j) covers
+ * the square from (i,j) to (i+1,j+1).
+ *
+ * Drawing is limited to a clip rectangle, so several Rasters can draw into
+ * separate parts of the same pixels at once.
+ *
+ * @author
+ *
+ */
+class Raster {
+	private static final int SAMPLES = 4; // in each direction, for pixels on an edge
+	private static final double HALF_DIAGONAL = Math.sqrt(0.5); // of a pixel
+	private static final double HALF_WIDTH = 0.5; // of a stroke
+
+	/**
+	 * A shape, described by its signed distance function: the distance from
+	 * (x,y) to the edge of the shape, negative inside. Only the sign needs to
+	 * be exact, the magnitude is used to find pixels well inside or outside.
+	 */
+	private interface Shape {
+		double distance(double x, double y);
+	}
+
+	private int[] pixels;
+	private int width; // pixels in a row
+	private int clipX0, clipY0, clipX1, clipY1; // drawing is limited to [clipX0,clipX1) x [clipY0,clipY1)
+	private float[] coverage; // of each pixel in the clip, by the shape being drawn
+	private int coveredX0, coveredY0, coveredX1, coveredY1; // the part of the clip with coverage set
+	private int fill = 0xff000000, stroke = 0xff000000;
+
+	Raster(int[] pixels, int width, int height) {
+		this(pixels, width, height, 0, 0, width, height);
+	}
+
+	/**
+	 * A Raster that only draws on the pixels [x0,x1) x [y0,y1).
+	 */
+	Raster(int[] pixels, int width, int height, int x0, int y0, int x1, int y1) {
+		this.pixels = pixels;
+		this.width = width;
+		this.clipX0 = Math.max(0, x0);
+		this.clipY0 = Math.max(0, y0);
+		this.clipX1 = Math.min(width, x1);
+		this.clipY1 = Math.min(height, y1);
+		this.coverage = new float[Math.max(0, this.clipX1 - this.clipX0) * Math.max(0, this.clipY1 - this.clipY0)];
+		this.coveredX0 = this.coveredY0 = Integer.MAX_VALUE;
+		this.coveredX1 = this.coveredY1 = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @param argb the color shapes are filled with
+	 */
+	void setFill(int argb) {
+		this.fill = argb;
+	}
+
+	/**
+	 * @param argb the color shapes are outlined with
+	 */
+	void setStroke(int argb) {
+		this.stroke = argb;
+	}
+
+	void fillRect(double x, double y, double w, double h) {
+		double x1 = x + w, y1 = y + h;
+		this.draw(x, y, x1, y1, (px, py) -> box(px, py, x, y, x1, y1), this.fill);
+	}
+
+	void strokeRect(double x, double y, double w, double h) {
+		double x1 = x + w, y1 = y + h;
+		this.draw(x - HALF_WIDTH, y - HALF_WIDTH, x1 + HALF_WIDTH, y1 + HALF_WIDTH,
+				(px, py) -> Math.abs(box(px, py, x, y, x1, y1)) - HALF_WIDTH, this.stroke);
+	}
+
+	void fillOval(double x, double y, double w, double h) {
+		double cx = x + w / 2, cy = y + h / 2, a = w / 2, b = h / 2;
+		this.draw(x, y, x + w, y + h, (px, py) -> ellipse(px, py, cx, cy, a, b), this.fill);
+	}
+
+	void strokeOval(double x, double y, double w, double h) {
+		double cx = x + w / 2, cy = y + h / 2, a = w / 2, b = h / 2;
+		this.draw(x - HALF_WIDTH, y - HALF_WIDTH, x + w + HALF_WIDTH, y + h + HALF_WIDTH,
+				(px, py) -> Math.abs(ellipse(px, py, cx, cy, a, b)) - HALF_WIDTH, this.stroke);
+	}
+
+	void strokeLine(double x1, double y1, double x2, double y2) {
+		if (x1 == x2 && y1 == y2) {
+			return; // no direction for the caps, nothing is drawn
+		}
+		this.cover(x1, y1, x2, y2);
+		this.composite(this.stroke);
+	}
+
+	/**
+	 * Stroke the path through the first n points as one shape, so pixels
+	 * where segments meet are only painted once.
+	 */
+	void strokePolyline(double[] xs, double[] ys, int n) {
+		for (int i = 0; i + 1 < n; i++) {
+			if (xs[i] != xs[i + 1] || ys[i] != ys[i + 1]) {
+				this.cover(xs[i], ys[i], xs[i + 1], ys[i + 1]);
+			}
+		}
+		this.composite(this.stroke);
+	}
+
+	/**
+	 * Add the coverage of the stroke of the segment from (x1,y1) to (x2,y2).
+	 */
+	private void cover(double x1, double y1, double x2, double y2) {
+		double length = Math.hypot(x2 - x1, y2 - y1);
+		double ux = (x2 - x1) / length, uy = (y2 - y1) / length; // along the segment
+		double half = length / 2 + HALF_WIDTH, mx = (x1 + x2) / 2, my = (y1 + y2) / 2;
+		double reach = 2 * HALF_WIDTH; // past the ends, enough for a square cap at any angle
+		this.cover(Math.min(x1, x2) - reach, Math.min(y1, y2) - reach, Math.max(x1, x2) + reach,
+				Math.max(y1, y2) + reach, (px, py) -> {
+					double along = (px - mx) * ux + (py - my) * uy;
+					double across = -(px - mx) * uy + (py - my) * ux;
+					return box(along, across, -half, -HALF_WIDTH, half, HALF_WIDTH);
+				});
+	}
+
+	private void draw(double x0, double y0, double x1, double y1, Shape shape, int color) {
+		this.cover(x0, y0, x1, y1, shape);
+		this.composite(color);
+	}
+
+	/**
+	 * Record the coverage of shape, which lies within (x0,y0)-(x1,y1), for
+	 * each pixel in the clip, keeping the larger where coverage is already set.
+	 */
+	private void cover(double x0, double y0, double x1, double y1, Shape shape) {
+		int i0 = Math.max(this.clipX0, (int) Math.floor(x0)), i1 = Math.min(this.clipX1, (int) Math.ceil(x1));
+		int j0 = Math.max(this.clipY0, (int) Math.floor(y0)), j1 = Math.min(this.clipY1, (int) Math.ceil(y1));
+		int clipWidth = this.clipX1 - this.clipX0;
+		if (i0 < i1 && j0 < j1) {
+			this.coveredX0 = Math.min(this.coveredX0, i0);
+			this.coveredY0 = Math.min(this.coveredY0, j0);
+			this.coveredX1 = Math.max(this.coveredX1, i1);
+			this.coveredY1 = Math.max(this.coveredY1, j1);
+		}
+		for (int j = j0; j < j1; j++) {
+			for (int i = i0; i < i1; i++) {
+				double d = shape.distance(i + 0.5, j + 0.5);
+				float c;
+				if (d <= -HALF_DIAGONAL) {
+					c = 1;
+				} else if (d >= HALF_DIAGONAL) {
+					continue;
+				} else {
+					int inside = 0;
+					for (int sy = 0; sy < SAMPLES; sy++) {
+						for (int sx = 0; sx < SAMPLES; sx++) {
+							if (shape.distance(i + (sx + 0.5) / SAMPLES, j + (sy + 0.5) / SAMPLES) <= 0) {
+								inside++;
+							}
+						}
+					}
+					c = inside / (float) (SAMPLES * SAMPLES);
+				}
+				int k = (j - this.clipY0) * clipWidth + (i - this.clipX0);
+				if (c > this.coverage[k]) {
+					this.coverage[k] = c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Blend color over the pixels in the clip, in proportion to their
+	 * coverage, and clear the coverage for the next shape.
+	 */
+	private void composite(int color) {
+		int clipWidth = this.clipX1 - this.clipX0;
+		for (int j = this.coveredY0; j < this.coveredY1; j++) {
+			for (int i = this.coveredX0; i < this.coveredX1; i++) {
+				int k = (j - this.clipY0) * clipWidth + (i - this.clipX0);
+				float c = this.coverage[k];
+				if (c > 0) {
+					int p = j * this.width + i;
+					this.pixels[p] = blend(color, this.pixels[p], c);
+					this.coverage[k] = 0;
+				}
+			}
+		}
+		this.coveredX0 = this.coveredY0 = Integer.MAX_VALUE;
+		this.coveredX1 = this.coveredY1 = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @return src drawn with opacity alpha over dst, both ARGB
+	 */
+	static int blend(int src, int dst, float alpha) {
+		float a = alpha * (src >>> 24) / 255f;
+		if (a >= 1) return src;
+		float keep = 1 - a;
+		int outA = Math.round(255 * a + (dst >>> 24) * keep);
+		int r = Math.round((src >> 16 & 0xff) * a + (dst >> 16 & 0xff) * keep);
+		int g = Math.round((src >> 8 & 0xff) * a + (dst >> 8 & 0xff) * keep);
+		int b = Math.round((src & 0xff) * a + (dst & 0xff) * keep);
+		return outA << 24 | r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * @return the signed distance from (x,y) to the box (x0,y0)-(x1,y1)
+	 */
+	private static double box(double x, double y, double x0, double y0, double x1, double y1) {
+		double dx = Math.max(x0 - x, x - x1), dy = Math.max(y0 - y, y - y1);
+		if (dx <= 0 && dy <= 0) return Math.max(dx, dy);
+		return Math.hypot(Math.max(dx, 0), Math.max(dy, 0));
+	}
+
+	/**
+	 * @return approximately the signed distance from (x,y) to the ellipse
+	 * centred at (cx,cy) with radii a and b, exact for circles
+	 */
+	private static double ellipse(double x, double y, double cx, double cy, double a, double b) {
+		if (a <= 0 || b <= 0) return Double.MAX_VALUE;
+		double r = Math.min(a, b);
+		return (Math.hypot((x - cx) / a, (y - cy) / b) - 1) * r;
+	}
+}
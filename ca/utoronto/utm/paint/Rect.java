@@ -0,0 +1,99 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * An axis aligned rectangle of the canvas, from (minX,minY) to (maxX,maxY)
+ * inclusive. Used for the bounding boxes of shapes and for the regions of
+ * the canvas that need to be redrawn. Instances are immutable.
+ *
+ * @author
+ *
+ */
+class Rect {
+	static final Rect EMPTY = new Rect(0, 0, -1, -1);
+
+	final int minX, minY, maxX, maxY; // Available to our package
+
+	Rect(int minX, int minY, int maxX, int maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/**
+	 * @return the smallest Rect containing both points
+	 */
+	static Rect of(int x1, int y1, int x2, int y2) {
+		return new Rect(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+	}
+
+	boolean isEmpty() {
+		return this.maxX < this.minX || this.maxY < this.minY;
+	}
+
+	int getWidth() {
+		return this.isEmpty() ? 0 : this.maxX - this.minX;
+	}
+
+	int getHeight() {
+		return this.isEmpty() ? 0 : this.maxY - this.minY;
+	}
+
+	/**
+	 * @return the smallest Rect containing this and other
+	 */
+	Rect union(Rect other) {
+		if (other.isEmpty()) return this;
+		if (this.isEmpty()) return other;
+		return new Rect(Math.min(this.minX, other.minX), Math.min(this.minY, other.minY),
+				Math.max(this.maxX, other.maxX), Math.max(this.maxY, other.maxY));
+	}
+
+	/**
+	 * @return the smallest Rect containing this and the point (x,y)
+	 */
+	Rect union(int x, int y) {
+		if (this.isEmpty()) return new Rect(x, y, x, y);
+		if (this.contains(x, y)) return this;
+		return new Rect(Math.min(this.minX, x), Math.min(this.minY, y), Math.max(this.maxX, x), Math.max(this.maxY, y));
+	}
+
+	boolean intersects(Rect other) {
+		return !this.isEmpty() && !other.isEmpty() && this.minX <= other.maxX && other.minX <= this.maxX
+				&& this.minY <= other.maxY && other.minY <= this.maxY;
+	}
+
+	/**
+	 * @return the part of this inside other
+	 */
+	Rect intersection(Rect other) {
+		if (!this.intersects(other)) return EMPTY;
+		return new Rect(Math.max(this.minX, other.minX), Math.max(this.minY, other.minY),
+				Math.min(this.maxX, other.maxX), Math.min(this.maxY, other.maxY));
+	}
+
+	boolean contains(int x, int y) {
+		return this.minX <= x && x <= this.maxX && this.minY <= y && y <= this.maxY;
+	}
+
+	/**
+	 * @return this, extended by margin on every side
+	 */
+	Rect grow(int margin) {
+		if (this.isEmpty()) return this;
+		return new Rect(this.minX - margin, this.minY - margin, this.maxX + margin, this.maxY + margin);
+	}
+
+	/**
+	 * @return this moved by dx, dy
+	 */
+	Rect offset(int dx, int dy) {
+		if (this.isEmpty()) return this;
+		return new Rect(this.minX + dx, this.minY + dy, this.maxX + dx, this.maxY + dy);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + this.minX + "," + this.minY + ")-(" + this.maxX + "," + this.maxY + ")";
+	}
+}
@@ -1,12 +1,12 @@
 package ca.utoronto.utm.paint;
+import java.io.IOException;
+
 import javafx.scene.canvas.GraphicsContext;
 
 public class RectangleCommand extends PaintCommand {
 	private Point p1,p2;
 	public RectangleCommand(Point p1, Point p2){
 		this.p1 = p1; this.p2=p2;
-		this.setChanged();
-		this.notifyObservers();
 	}
 
 	public Point getP1() {
@@ -14,9 +14,9 @@ public class RectangleCommand extends PaintCommand {
 	}
 
 	public void setP1(Point p1) {
+		Rect before = this.getBounds();
 		this.p1 = p1;
-		this.setChanged();
-		this.notifyObservers();
+		this.changed(before.union(this.getBounds()));
 	}
 
 	public Point getP2() {
@@ -24,9 +24,19 @@ public class RectangleCommand extends PaintCommand {
 	}
 
 	public void setP2(Point p2) {
+		Rect before = this.getBounds();
 		this.p2 = p2;
-		this.setChanged();
-		this.notifyObservers();
+		this.changed(before.union(this.getBounds()));
+	}
+	
+	@Override
+	String getShapeName() {
+		return "Rectangle";
+	}
+
+	@Override
+	Rect getBounds() {
+		return Rect.of(p1.x, p1.y, p2.x, p2.y);
 	}
 
 	public Point getTopLeft(){
@@ -41,19 +51,21 @@ public class RectangleCommand extends PaintCommand {
 		return(new Point(br.x-tl.x, br.y-tl.y));
 	}
 	
-	public String report() {
-		int r = (int)(this.getColor().getRed() * 255);
-		int g = (int)(this.getColor().getGreen() * 255);
-		int b = (int)(this.getColor().getBlue() * 255);
-
-		String s = "";
-		s+="Rectangle\n";
-		s+="\tcolor:"+r+","+g+","+b+"\n";
-		s+="\tfilled:"+this.isFill()+"\n";
-		s+="\tp1:" + this.getTopLeft().report() + "\n";
-		s+="\tp2:" + this.getBottomRight().report() + "\n";
-		s+="EndRectangle\n";
-		return s;
+	@Override
+	void write(PaintFileWriter writer) throws IOException {
+		writer.writeShape("Rectangle", this.getColor(), this.isFill());
+		writer.append("\tp1:").appendPoint(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y)).append('\n');
+		writer.append("\tp2:").appendPoint(Math.max(p1.x, p2.x), Math.max(p1.y, p2.y)).append('\n');
+		writer.append("EndRectangle\n");
+	}
+	
+	@Override
+	void write(PaintBinaryWriter writer) throws IOException {
+		writer.writeShape(PaintBinaryFileParser.RECTANGLE, this.getColor(), this.isFill());
+		writer.writeInt(this.p1.x);
+		writer.writeInt(this.p1.y);
+		writer.writeInt(this.p2.x);
+		writer.writeInt(this.p2.y);
 	}
 	
 	@Override
@@ -68,4 +80,16 @@ public class RectangleCommand extends PaintCommand {
 			g.strokeRect(topLeft.x, topLeft.y, dimensions.x, dimensions.y);
 		}
 	}
+	@Override
+	void execute(Raster r) {
+		Point topLeft = this.getTopLeft();
+		Point dimensions = this.getDimensions();
+		if(this.isFill()){
+			r.setFill(this.getArgb());
+			r.fillRect(topLeft.x, topLeft.y, dimensions.x, dimensions.y);
+		} else {
+			r.setStroke(this.getArgb());
+			r.strokeRect(topLeft.x, topLeft.y, dimensions.x, dimensions.y);
+		}
+	}
 }
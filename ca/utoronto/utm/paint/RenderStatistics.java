@@ -0,0 +1,219 @@
+package ca.utoronto.utm.paint;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * How long repainting the canvas takes and how often it happens, to find
+ * the drawings and interactions that miss the 16 ms frame budget. One
+ * instance serves every PaintPanel in the JVM, and is also published over
+ * JMX as a RenderStatisticsMXBean. Each frame is also a FrameEvent for
+ * Flight Recorder.
+ *
+ * Times are those taken to issue the drawing calls on the JavaFX
+ * application thread. JavaFX rasterizes them later, on its own thread.
+ *
+ * Frames are recorded on the JavaFX application thread, the statistics
+ * may be read on any thread.
+ *
+ * @author
+ *
+ */
+class RenderStatistics implements RenderStatisticsMXBean {
+	static final long BUDGET_NANOS = 16_000_000; // a frame of a 60 Hz display, about
+	private static final boolean SHAPE_TIMING = Boolean.getBoolean("paint.render.timing"); // time each shape drawn
+	private static final long[] BUCKETS = { 1, 2, 4, 8, 16, 33, 66, 133, 266 }; // upper limits, in ms, of the histogram buckets
+	private static final int RECENT = 256; // frames kept for the frame rate and percentile
+
+	private static RenderStatistics instance = null;
+
+	/**
+	 * @return the statistics for this JVM, registered with the platform MBean server
+	 */
+	static synchronized RenderStatistics get() {
+		if (instance == null) {
+			instance = new RenderStatistics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+						new ObjectName("ca.utoronto.utm.paint:type=RenderStatistics"));
+			} catch (JMException e) {
+				System.out.println("Render statistics not published over JMX: " + e.getMessage());
+			}
+		}
+		return instance;
+	}
+
+	private LongAdder repaints = new LongAdder(), overBudget = new LongAdder(), commands = new LongAdder();
+	private AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1); // the last is for slower frames
+	private volatile long lastFrameNanos = 0;
+	private volatile int lastCommands = 0;
+	private ConcurrentHashMap<String, LongAdder[]> shapes = new ConcurrentHashMap<String, LongAdder[]>(); // count and nanos by shape name
+
+	// The most recent frames, a ring buffer guarded by this
+	private long[] recentEnds = new long[RECENT], recentDurations = new long[RECENT];
+	private int recentNext = 0, recentCount = 0;
+
+	// The frame being drawn
+	private long frameStart;
+	private int frameCommands, frameTiles;
+	private FrameEvent event;
+
+	void beginFrame() {
+		this.frameCommands = 0;
+		this.frameTiles = 0;
+		this.event = new FrameEvent();
+		this.event.begin();
+		this.frameStart = System.nanoTime();
+	}
+
+	/**
+	 * Draw command on g, at scale, as part of the frame, counting it, and
+	 * timing it if asked to.
+	 */
+	void draw(PaintCommand command, GraphicsContext g, double scale) {
+		this.frameCommands++;
+		if (!SHAPE_TIMING) {
+			command.execute(g, scale);
+			return;
+		}
+		long start = System.nanoTime();
+		command.execute(g, scale);
+		long nanos = System.nanoTime() - start;
+		LongAdder[] totals = this.shapes.computeIfAbsent(command.getShapeName(), name -> new LongAdder[] { new LongAdder(), new LongAdder() });
+		totals[0].increment();
+		totals[1].add(nanos);
+	}
+
+	/**
+	 * Note that a tile had to be drawn again during the frame.
+	 */
+	void tileDrawn() {
+		this.frameTiles++;
+	}
+
+	/**
+	 * Record the frame begun by beginFrame.
+	 * @param region the region of the canvas repainted
+	 */
+	void endFrame(Rect region) {
+		long end = System.nanoTime(), nanos = end - this.frameStart;
+		this.event.end();
+		if (this.event.shouldCommit()) {
+			this.event.width = region.getWidth();
+			this.event.height = region.getHeight();
+			this.event.commands = this.frameCommands;
+			this.event.tilesDrawn = this.frameTiles;
+			this.event.commit();
+		}
+		this.event = null;
+
+		this.repaints.increment();
+		this.commands.add(this.frameCommands);
+		this.lastCommands = this.frameCommands;
+		this.lastFrameNanos = nanos;
+		if (nanos > BUDGET_NANOS) {
+			this.overBudget.increment();
+		}
+		int bucket = 0;
+		while (bucket < BUCKETS.length && nanos > BUCKETS[bucket] * 1_000_000) {
+			bucket++;
+		}
+		this.histogram.incrementAndGet(bucket);
+		synchronized (this) {
+			this.recentEnds[this.recentNext] = end;
+			this.recentDurations[this.recentNext] = nanos;
+			this.recentNext = (this.recentNext + 1) % RECENT;
+			this.recentCount = Math.min(this.recentCount + 1, RECENT);
+		}
+	}
+
+	@Override
+	public long getRepaintCount() {
+		return this.repaints.sum();
+	}
+
+	@Override
+	public long getRepaintsOverBudget() {
+		return this.overBudget.sum();
+	}
+
+	@Override
+	public long getCommandsDrawn() {
+		return this.commands.sum();
+	}
+
+	@Override
+	public int getLastCommandsDrawn() {
+		return this.lastCommands;
+	}
+
+	@Override
+	public double getLastFrameMillis() {
+		return this.lastFrameNanos / 1e6;
+	}
+
+	@Override
+	public synchronized int getFramesPerSecond() {
+		long since = System.nanoTime() - 1_000_000_000;
+		int frames = 0;
+		for (int i = 0; i < this.recentCount; i++) {
+			if (this.recentEnds[i] - since > 0) frames++;
+		}
+		return frames;
+	}
+
+	@Override
+	public synchronized double getP99FrameMillis() {
+		if (this.recentCount == 0) return 0;
+		long[] durations = Arrays.copyOf(this.recentDurations, this.recentCount);
+		Arrays.sort(durations);
+		return durations[(int) Math.ceil(0.99 * durations.length) - 1] / 1e6;
+	}
+
+	@Override
+	public Map<String, Long> getFrameTimeHistogram() {
+		Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < BUCKETS.length; i++) {
+			buckets.put("<= " + BUCKETS[i] + " ms", this.histogram.get(i));
+		}
+		buckets.put("> " + BUCKETS[BUCKETS.length - 1] + " ms", this.histogram.get(BUCKETS.length));
+		return buckets;
+	}
+
+	@Override
+	public Map<String, Double> getMicrosPerShape() {
+		Map<String, Double> micros = new TreeMap<String, Double>();
+		this.shapes.forEach((name, totals) -> micros.put(name, totals[1].sum() / 1e3 / Math.max(1, totals[0].sum())));
+		return micros;
+	}
+
+	@Override
+	public Map<String, Long> getShapesDrawn() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		this.shapes.forEach((name, totals) -> counts.put(name, totals[0].sum()));
+		return counts;
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.repaints.reset();
+		this.overBudget.reset();
+		this.commands.reset();
+		for (int i = 0; i < this.histogram.length(); i++) {
+			this.histogram.set(i, 0);
+		}
+		this.shapes.clear();
+		this.recentNext = this.recentCount = 0;
+	}
+}
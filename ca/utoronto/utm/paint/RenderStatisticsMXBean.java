@@ -0,0 +1,67 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Map;
+
+/**
+ * The management interface of RenderStatistics, registered as
+ * ca.utoronto.utm.paint:type=RenderStatistics, for viewing in JConsole,
+ * VisualVM or any other JMX client.
+ *
+ * @author
+ *
+ */
+public interface RenderStatisticsMXBean {
+
+	/**
+	 * @return the number of times the canvas has been repainted
+	 */
+	long getRepaintCount();
+
+	/**
+	 * @return the number of repaints that took longer than the 16 ms frame budget
+	 */
+	long getRepaintsOverBudget();
+
+	/**
+	 * @return the number of commands drawn, over all repaints
+	 */
+	long getCommandsDrawn();
+
+	/**
+	 * @return the number of commands drawn by the last repaint
+	 */
+	int getLastCommandsDrawn();
+
+	double getLastFrameMillis();
+
+	/**
+	 * @return the number of repaints in the last second
+	 */
+	int getFramesPerSecond();
+
+	/**
+	 * @return the 99th percentile of the time taken by recent repaints
+	 */
+	double getP99FrameMillis();
+
+	/**
+	 * @return the number of repaints taking up to each bucket's limit, in ms
+	 */
+	Map<String, Long> getFrameTimeHistogram();
+
+	/**
+	 * @return the mean time to draw a shape of each type, in microseconds.
+	 * Only collected when the paint.render.timing system property is true.
+	 */
+	Map<String, Double> getMicrosPerShape();
+
+	/**
+	 * @return the number of shapes of each type drawn, when timed
+	 */
+	Map<String, Long> getShapesDrawn();
+
+	/**
+	 * Start counting again from zero.
+	 */
+	void reset();
+}
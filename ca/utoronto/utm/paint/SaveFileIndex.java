@@ -0,0 +1,174 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The index of a binary save file: where each shape block starts, and the
+ * bounds of its shape, so shapes can be found and read without parsing the
+ * file, see LazyPaintFile.
+ *
+ * The index is kept in a file of its own, next to the save file, named as
+ * the save file with .index added. A reader that knows nothing of indexes
+ * reads the save file as before. The index holds the size and modification
+ * time of the save file it was made for, and is ignored if they no longer
+ * match.
+ *
+ * The index is big endian and of fixed size records, so it can be used
+ * memory mapped, as is:
+ *
+ *   header  the magic bytes PNTI, an int version, currently 1, then longs:
+ *           the size and the modification time, in ms, of the save file,
+ *           and the number of entries
+ *   entry   for each block, in order, the long offset of the block in the
+ *           save file, then the bounds of its shape as ints: min x, min y,
+ *           max x, max y
+ *
+ * @author
+ *
+ */
+class SaveFileIndex {
+	static final byte[] MAGIC = { 'P', 'N', 'T', 'I' };
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32, ENTRY_BYTES = 24;
+	static final String EXTENSION = ".index";
+
+	/**
+	 * @return where the index of saveFile is kept
+	 */
+	static Path of(Path saveFile) {
+		return saveFile.resolveSibling(saveFile.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * @return the number of entries in index, if it is the index of a save
+	 * file of the given size and modification time, -1 if not
+	 */
+	static long check(FileChannel index, long size, long modified) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		while (header.hasRemaining() && index.read(header, header.position()) > 0) {
+			// read the rest
+		}
+		if (header.hasRemaining()) return -1;
+		header.flip();
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) return -1;
+		if (header.getLong() != size || header.getLong() != modified) return -1;
+		long count = header.getLong();
+		return index.size() >= HEADER_BYTES + count * ENTRY_BYTES ? count : -1;
+	}
+
+	/**
+	 * Bring the index of saveFile up to date with its blocks, now that they
+	 * have been written. If the index was that of the file as it was, only
+	 * the entries of the blocks written are, otherwise the index is written
+	 * in full.
+	 * @param size the size of the save file before it was written, -1 if not known
+	 * @param modified the modification time of the save file before it was written
+	 * @param commands the commands of the blocks of the save file, in order
+	 * @param offsets the offsets of those blocks
+	 * @param count the number of blocks
+	 * @param patched blocks before from that were written
+	 * @param from the first of the blocks written from there to the end
+	 * @param newSize the size of the save file now
+	 * @param newModified the modification time of the save file now
+	 */
+	static void update(Path saveFile, long size, long modified, PaintCommand[] commands, long[] offsets, int count,
+			List<Integer> patched, int from, long newSize, long newModified) throws IOException {
+		try (FileChannel index = FileChannel.open(of(saveFile), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (size < 0 || check(index, size, modified) < from) {
+				patched = List.of();
+				from = 0;
+			}
+			ByteBuffer entries = ByteBuffer.allocate(ENTRY_BYTES * 2730); // about 64 KB
+			for (int i : patched) {
+				entries.clear();
+				putEntry(entries, commands[i], offsets[i]);
+				write(index, entries, HEADER_BYTES + (long) i * ENTRY_BYTES);
+			}
+			entries.clear();
+			long position = HEADER_BYTES + (long) from * ENTRY_BYTES;
+			for (int i = from; i < count; i++) {
+				putEntry(entries, commands[i], offsets[i]);
+				if (!entries.hasRemaining()) {
+					position += write(index, entries, position);
+					entries.clear();
+				}
+			}
+			write(index, entries, position);
+			index.truncate(HEADER_BYTES + (long) count * ENTRY_BYTES);
+
+			// The header last, so until it is written the index does not match
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.put(MAGIC).putInt(VERSION).putLong(newSize).putLong(newModified).putLong(count);
+			write(index, header, 0);
+		}
+	}
+
+	/**
+	 * Write model to saveFile in the binary format, and its index beside it,
+	 * a block and an entry at a time. Nothing is kept of a command once it
+	 * is written, so a drawing too large to hold in memory, a LazyPaintModel,
+	 * can be saved as its shapes are read.
+	 * @param simplifier applied to each stroke written, null to write them as they are
+	 * @return the number of bytes written to saveFile
+	 */
+	static long save(Path saveFile, PaintModel model, StrokeSimplifier simplifier) throws IOException {
+		long count = 0, written;
+		try (FileChannel index = FileChannel.open(of(saveFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING); OutputStream out = Files.newOutputStream(saveFile)) {
+			PaintBinaryWriter writer = new PaintBinaryWriter(out);
+			writer.writeHeader();
+			ByteBuffer entries = ByteBuffer.allocate(ENTRY_BYTES * 2730); // about 64 KB
+			long position = HEADER_BYTES;
+			for (PaintCommand c : model.commandsToWrite()) {
+				PaintCommand command = simplifier == null ? c : c.simplified(simplifier);
+				putEntry(entries, command, writer.getPosition());
+				command.write(writer);
+				count++;
+				if (!entries.hasRemaining()) {
+					position += write(index, entries, position);
+					entries.clear();
+				}
+			}
+			write(index, entries, position);
+			writer.writeEnd();
+			written = writer.getPosition();
+		}
+
+		// The header last, so until the save file is complete the index does not match it
+		try (FileChannel index = FileChannel.open(of(saveFile), StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.put(MAGIC).putInt(VERSION).putLong(Files.size(saveFile))
+					.putLong(Files.getLastModifiedTime(saveFile).toMillis()).putLong(count);
+			write(index, header, 0);
+		}
+		return written;
+	}
+
+	private static void putEntry(ByteBuffer entries, PaintCommand command, long offset) {
+		Rect bounds = command.getBounds();
+		entries.putLong(offset).putInt(bounds.minX).putInt(bounds.minY).putInt(bounds.maxX).putInt(bounds.maxY);
+	}
+
+	/**
+	 * Write what has been put in buffer to index at position.
+	 * @return the number of bytes written
+	 */
+	private static int write(FileChannel index, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		int n = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			position += index.write(buffer, position);
+		}
+		return n;
+	}
+}
@@ -0,0 +1,215 @@
+package ca.utoronto.utm.paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Where each shape block of a binary save file is, so the file can be saved
+ * again by writing only what changed. Each block is kept with the command
+ * it was written from and that command's change count at the time.
+ *
+ * Saving compares the model with the file, in drawing order. A block whose
+ * command has changed, but which encodes to the same number of bytes, is
+ * overwritten where it is. From the first command that is new, removed, or
+ * has grown or shrunk, the rest of the file is written again, so shapes
+ * added on top are appended in place of the end marker. Blocks that would
+ * be overwritten within SEEK_BYTES of that point are folded into the run
+ * written again instead, as one sequential write is cheaper than many small
+ * ones. Adding a shape to a large drawing writes the shape and the end marker.
+ *
+ * Unless paint.save.index is false, the SaveFileIndex of the file is kept
+ * up to date as well, in the same way.
+ *
+ * The file is only saved incrementally if it is as this last left it, going
+ * by its size and modification time, otherwise it is written in full. The
+ * file is changed in place, so a crash during a save can leave it damaged,
+ * the journal is what protects against that.
+ *
+ * Must be used on the JavaFX application thread, or wherever the model is.
+ *
+ * @author
+ *
+ */
+class SaveFileLayout {
+	static final long SEEK_BYTES = 64 << 10; // about the cost, in bytes written, of one more write elsewhere in the file
+	private static final int HEADER_BYTES = PaintBinaryFileParser.MAGIC.length + 1;
+	private static final boolean INDEXED = Boolean.parseBoolean(System.getProperty("paint.save.index", "true"));
+
+	private Path path;
+	private StrokeSimplifier simplifier; // applied to the strokes written, null for none
+	private PaintCommand[] commands = new PaintCommand[16]; // in the order of their blocks
+	private int[] changeCounts = new int[16]; // of the commands, when their blocks were written
+	private long[] offsets = new long[17]; // of the blocks, offsets[count] is the end marker
+	private int count = 0; // blocks in the file
+	private long size = -1, modified = -1; // of the file, when this last wrote it, -1 if it has not
+	private boolean indexed = INDEXED; // whether to keep an index of the file
+
+	// Encodes single blocks
+	private ByteArrayOutputStream block = new ByteArrayOutputStream();
+	private PaintBinaryWriter blockWriter = new PaintBinaryWriter(this.block);
+
+	/**
+	 * @param path the file to save to
+	 * @param simplifier applied to each stroke written, null to write them as they are
+	 */
+	SaveFileLayout(Path path, StrokeSimplifier simplifier) {
+		this.path = path;
+		this.simplifier = simplifier;
+	}
+
+	Path getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @param indexed whether to keep a SaveFileIndex of the file
+	 */
+	void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+	}
+
+	/**
+	 * Note that the block at offset was read into command, as the file is loaded.
+	 * @param exact whether command holds exactly what the block does, false
+	 * if, for instance, its stroke was simplified as it was read
+	 */
+	void loaded(PaintCommand command, long offset, boolean exact) {
+		this.setBlock(this.count++, command, exact ? command.getChangeCount() : command.getChangeCount() - 1, offset);
+	}
+
+	/**
+	 * Note that the end marker was read at offset, and the file is loaded.
+	 */
+	void loadedEnd(long offset) throws IOException {
+		this.offsets[this.count] = offset;
+		this.stamp();
+	}
+
+	/**
+	 * Save model to the file, incrementally if this knows the file's layout.
+	 * @return the number of bytes written
+	 */
+	long save(PaintModel model) throws IOException {
+		if (this.size < 0 || !Files.exists(this.path) || Files.size(this.path) != this.size
+				|| Files.getLastModifiedTime(this.path).toMillis() != this.modified) {
+			Arrays.fill(this.commands, 0, this.count, null);
+			this.count = 0;
+			this.offsets[0] = HEADER_BYTES;
+			this.size = -1;
+		}
+		long size = this.size, modified = this.modified; // of the file as it is
+		// The commands of the model that still have their blocks, from the start
+		Iterator<PaintCommand> commands = model.commands().iterator();
+		ArrayList<Integer> patched = new ArrayList<Integer>(); // blocks to overwrite
+		ArrayList<byte[]> patches = new ArrayList<byte[]>();
+		PaintCommand next = null; // the first command after those
+		int kept = 0;
+		while (commands.hasNext()) {
+			next = commands.next();
+			if (kept == this.count || this.commands[kept] != next) break;
+			if (this.changeCounts[kept] != next.getChangeCount()) {
+				byte[] bytes = this.encode(next);
+				if (bytes.length != this.offsets[kept + 1] - this.offsets[kept]) break;
+				patched.add(kept);
+				patches.add(bytes);
+				this.changeCounts[kept] = next.getChangeCount();
+			}
+			kept++;
+			next = null;
+		}
+		int rewrite = kept; // the first block to write again
+		while (!patched.isEmpty() && this.offsets[rewrite] - this.offsets[patched.get(patched.size() - 1)] <= SEEK_BYTES) {
+			rewrite = patched.remove(patched.size() - 1);
+			patches.remove(patches.size() - 1);
+		}
+		if (patched.isEmpty() && rewrite == this.count && next == null && this.size >= 0) {
+			return 0; // nothing changed
+		}
+
+		long written = 0;
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			for (int i = 0; i < patched.size(); i++) {
+				ByteBuffer buffer = ByteBuffer.wrap(patches.get(i));
+				long offset = this.offsets[patched.get(i)];
+				while (buffer.hasRemaining()) {
+					offset += channel.write(buffer, offset);
+				}
+				written += patches.get(i).length;
+			}
+
+			long start = this.size < 0 ? 0 : this.offsets[rewrite];
+			channel.position(start);
+			PaintBinaryWriter writer = new PaintBinaryWriter(Channels.newOutputStream(channel));
+			if (start == 0) {
+				writer.writeHeader();
+			}
+			int n = rewrite;
+			for (int i = rewrite; i < kept; i++) {
+				this.write(writer, start, n++, this.commands[i]);
+			}
+			if (next != null) {
+				this.write(writer, start, n++, next);
+			}
+			while (commands.hasNext()) {
+				this.write(writer, start, n++, commands.next());
+			}
+			if (n < this.count) {
+				Arrays.fill(this.commands, n, this.count, null); // blocks no longer in the file
+			}
+			this.count = n;
+			this.offsets[n] = start + writer.getPosition();
+			writer.writeEnd();
+			written += writer.getPosition();
+			channel.truncate(start + writer.getPosition());
+		}
+		this.stamp();
+		if (this.indexed) {
+			SaveFileIndex.update(this.path, size, modified, this.commands, this.offsets, this.count, patched, rewrite, this.size, this.modified);
+		}
+		return written;
+	}
+
+	/**
+	 * Write command as block n, with writer, which started at offset start of the file.
+	 */
+	private void write(PaintBinaryWriter writer, long start, int n, PaintCommand command) throws IOException {
+		this.setBlock(n, command, command.getChangeCount(), start + writer.getPosition());
+		(this.simplifier == null ? command : command.simplified(this.simplifier)).write(writer);
+	}
+
+	private byte[] encode(PaintCommand command) throws IOException {
+		this.block.reset();
+		(this.simplifier == null ? command : command.simplified(this.simplifier)).write(this.blockWriter);
+		this.blockWriter.flush();
+		return this.block.toByteArray();
+	}
+
+	private void setBlock(int n, PaintCommand command, int changeCount, long offset) {
+		if (n + 1 >= this.offsets.length) {
+			int capacity = 2 * this.commands.length;
+			this.commands = Arrays.copyOf(this.commands, capacity);
+			this.changeCounts = Arrays.copyOf(this.changeCounts, capacity);
+			this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+		}
+		this.commands[n] = command;
+		this.changeCounts[n] = changeCount;
+		this.offsets[n] = offset;
+	}
+
+	/**
+	 * Remember the file as it is now, to know later whether it was changed by anything else.
+	 */
+	private void stamp() throws IOException {
+		this.size = Files.size(this.path);
+		this.modified = Files.getLastModifiedTime(this.path).toMillis();
+	}
+}
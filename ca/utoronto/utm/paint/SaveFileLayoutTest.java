@@ -0,0 +1,63 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class SaveFileLayoutTest {
+
+	@Test
+	public void incrementalSaveTest() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+		Path file = Files.createTempFile("incremental", PaintBinaryFileParser.EXTENSION);
+		file.toFile().deleteOnExit();
+		SaveFileIndex.of(file).toFile().deleteOnExit();
+		SaveFileLayout layout = new SaveFileLayout(file, null);
+		long full = layout.save(paintModel);
+		assertArrayEquals("Full save", saveBinary(paintModel), Files.readAllBytes(file));
+		assertEquals("Nothing to save", 0, layout.save(paintModel));
+
+		// A new shape is appended
+		RectangleCommand rectangle = new RectangleCommand(new Point(1, 2), new Point(3, 4));
+		paintModel.addCommand(rectangle);
+		assertTrue("Appended", layout.save(paintModel) < full);
+		assertArrayEquals("Append", saveBinary(paintModel), Files.readAllBytes(file));
+
+		// Changed, grown and removed shapes
+		rectangle.setP2(new Point(5, 6));
+		layout.save(paintModel);
+		assertArrayEquals("Overwrite", saveBinary(paintModel), Files.readAllBytes(file));
+		PolyLineCommand polyline = new PolyLineCommand();
+		polyline.add(1, 1);
+		paintModel.addCommand(polyline);
+		layout.save(paintModel);
+		polyline.add(300, 200);
+		layout.save(paintModel);
+		assertArrayEquals("Grown", saveBinary(paintModel), Files.readAllBytes(file));
+		paintModel.removeCommand(rectangle);
+		layout.save(paintModel);
+		assertArrayEquals("Removed", saveBinary(paintModel), Files.readAllBytes(file));
+
+		// The layout of a file can be found as it is read
+		PaintModel loaded = new PaintModel();
+		layout = new SaveFileLayout(file, null);
+		PaintBinaryFileParser parser = new PaintBinaryFileParser();
+		parser.setLayout(layout);
+		assertTrue(parser.parse(file, loaded));
+		loaded.addCommand(new CircleCommand(new Point(7, 7), 7));
+		assertTrue("Appended after load", layout.save(loaded) < full);
+		assertArrayEquals("Append after load", saveBinary(loaded), Files.readAllBytes(file));
+	}
+
+	private byte[] saveBinary(PaintModel paintModel) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		paintModel.saveBinary(out);
+		return out.toByteArray();
+	}
+}
@@ -11,10 +11,29 @@ public class ShapeManipulatorStrategy implements  EventHandler<MouseEvent> {
 		this.paintModel=paintModel;
 	}
 	
+	/**
+	 * Add command, the start of a new shape, to the model as an edit that can be undone.
+	 * @param command
+	 */
 	void addCommand(PaintCommand command){
 		this.paintModel.addCommand(command);
+		this.paintModel.getHistory().record(new UndoHistory.Added(this.paintModel, command));
 	}
 	
+	/**
+	 * Record edit, just made to the model, so it can be undone.
+	 * @param edit
+	 */
+	void recordEdit(UndoHistory.Edit edit){
+		this.paintModel.getHistory().record(edit);
+	}
+	
+	/**
+	 * Complete the shape being drawn, if it takes more than one gesture,
+	 * before the model is changed some other way.
+	 */
+	void finish() { }
+	
 	@Override
 	public void handle(MouseEvent event) {
 		if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
@@ -0,0 +1,165 @@
+package ca.utoronto.utm.paint;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Draw a PaintModel into an int[] of ARGB pixels, without JavaFX or a
+ * display, for thumbnails and previews made on a server. Each command
+ * draws itself on a Raster, as it draws itself on a GraphicsContext on
+ * screen.
+ *
+ * The image is cut into square tiles, the commands reaching into each tile
+ * are found, and the tiles are drawn in parallel on a ForkJoinPool. The
+ * model must not change while it is being drawn.
+ *
+ * Usage: java ca.utoronto.utm.paint.SoftwareRenderer input output.png [width height]
+ *
+ * @author
+ *
+ */
+public class SoftwareRenderer {
+	static final int TILE_SIZE = 64; // pixels on a side
+	static final int DEFAULT_WIDTH = 500, DEFAULT_HEIGHT = 500; // as the canvas in PaintPanel
+
+	private ForkJoinPool pool;
+	private int background = 0xffffffff; // as the pane behind the canvas in PaintPanel
+
+	public SoftwareRenderer() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool the pool to draw tiles on
+	 */
+	public SoftwareRenderer(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param argb the color of the image before anything is drawn
+	 */
+	public void setBackground(int argb) {
+		this.background = argb;
+	}
+
+	/**
+	 * @return the part of the model from (0,0) to (width,height), as ARGB
+	 * pixels row by row
+	 */
+	public int[] render(PaintModel paintModel, int width, int height) {
+		int[] pixels = new int[width * height];
+		Arrays.fill(pixels, this.background);
+		if (width <= 0 || height <= 0) {
+			return pixels;
+		}
+
+		// Sort the commands into the tiles they reach, keeping drawing order
+		List<PaintCommand> commands = paintModel.getCommandsIn(new Rect(0, 0, width - 1, height - 1).grow(PaintCommand.STROKE_MARGIN));
+		int columns = (width + TILE_SIZE - 1) / TILE_SIZE, rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		Tile[] tiles = new Tile[columns * rows];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = new Tile(pixels, width, height, (i % columns) * TILE_SIZE, (i / columns) * TILE_SIZE, commands);
+		}
+		for (int c = 0; c < commands.size(); c++) {
+			Rect reach = commands.get(c).getBounds().grow(PaintCommand.STROKE_MARGIN);
+			if (reach.isEmpty()) continue;
+			int tx0 = Math.max(0, reach.minX / TILE_SIZE), tx1 = Math.min(columns - 1, reach.maxX / TILE_SIZE);
+			int ty0 = Math.max(0, reach.minY / TILE_SIZE), ty1 = Math.min(rows - 1, reach.maxY / TILE_SIZE);
+			for (int ty = ty0; ty <= ty1; ty++) {
+				for (int tx = tx0; tx <= tx1; tx++) {
+					tiles[ty * columns + tx].add(c);
+				}
+			}
+		}
+
+		final List<Tile> work = Arrays.asList(tiles);
+		this.pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(work);
+			}
+		});
+		return pixels;
+	}
+
+	/**
+	 * @return the part of the model from (0,0) to (width,height) as an image
+	 */
+	public BufferedImage renderImage(PaintModel paintModel, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, this.render(paintModel, width, height), 0, width);
+		return image;
+	}
+
+	/**
+	 * Write the part of the model from (0,0) to (width,height) to file as a PNG.
+	 */
+	public void writePng(PaintModel paintModel, int width, int height, Path file) throws IOException {
+		if (!ImageIO.write(this.renderImage(paintModel, width, height), "png", file.toFile())) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	/**
+	 * One tile of the image, and the commands, by index, that reach into it.
+	 */
+	private static class Tile extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int[] pixels;
+		private int width, height, x, y; // of the image, and where this is in it
+		private List<PaintCommand> commands;
+		private int[] indices = new int[16];
+		private int count = 0;
+
+		Tile(int[] pixels, int width, int height, int x, int y, List<PaintCommand> commands) {
+			this.pixels = pixels;
+			this.width = width;
+			this.height = height;
+			this.x = x;
+			this.y = y;
+			this.commands = commands;
+		}
+
+		void add(int index) {
+			if (this.count == this.indices.length) {
+				this.indices = Arrays.copyOf(this.indices, 2 * this.count);
+			}
+			this.indices[this.count++] = index;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.count == 0) return;
+			Raster raster = new Raster(this.pixels, this.width, this.height, this.x, this.y, this.x + TILE_SIZE, this.y + TILE_SIZE);
+			for (int i = 0; i < this.count; i++) {
+				this.commands.get(this.indices[i]).execute(raster);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 4) {
+			System.err.println("Usage: SoftwareRenderer input output.png [width height]");
+			System.exit(2);
+		}
+		System.setProperty("java.awt.headless", "true");
+		int width = args.length == 4 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+		int height = args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_HEIGHT;
+		PaintModel paintModel = new ColumnarPaintModel();
+		String errorMessage = PaintFileConverter.load(Paths.get(args[0]), paintModel);
+		if (!errorMessage.equals("")) {
+			System.err.println(args[0] + ": " + errorMessage); // draw what was read before the error
+		}
+		new SoftwareRenderer().writePng(paintModel, width, height, Paths.get(args[1]));
+	}
+}
@@ -0,0 +1,142 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+public class SoftwareRendererTest {
+
+	@Test
+	public void softwareRendererTilesTest() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+		paintModel.addCommands(renderedShapes()); // across the edges of the tiles
+		int width = 300, height = 200;
+
+		// Drawn on one Raster, without tiles
+		int[] untiled = new int[width * height];
+		Arrays.fill(untiled, 0xffffffff);
+		Raster raster = new Raster(untiled, width, height);
+		for (PaintCommand c : paintModel.commands()) {
+			c.execute(raster);
+		}
+		assertArrayEquals("Tiled", untiled, new SoftwareRenderer().render(paintModel, width, height));
+	}
+
+	@Test
+	public void softwareRendererPixelsTest() {
+		PaintModel paintModel = new PaintModel();
+		paintModel.addCommands(renderedShapes());
+		int width = 120, height = 100;
+		int[] pixels = new SoftwareRenderer().render(paintModel, width, height);
+
+		// Filled shapes cover whole pixels inside, and nothing outside
+		assertEquals("Filled rectangle", 0xffff0000, pixels[20 * width + 10]);
+		assertEquals("Filled rectangle corner", 0xffff0000, pixels[10 * width + 10]);
+		assertEquals("Past filled rectangle", 0xffffffff, pixels[10 * width + 40]);
+		assertEquals("Filled circle", 0xff0000ff, pixels[50 * width + 90]);
+		assertEquals("Outside filled circle", 0xffffffff, pixels[36 * width + 76]);
+
+		// Strokes are a pixel wide, centred on the outline, so an outline
+		// on a whole coordinate half covers the pixels either side of it
+		int half = 0xff808080, quarter = 0xffbfbfbf; // black at that coverage over white
+		assertEquals("Stroked rectangle", half, pixels[70 * width + 9]);
+		assertEquals("Stroked rectangle", half, pixels[70 * width + 10]);
+		assertEquals("Inside stroked rectangle", 0xffffffff, pixels[70 * width + 20]);
+		assertEquals("Stroked circle", half, pixels[80 * width + 109]);
+		assertEquals("Stroked circle", half, pixels[80 * width + 110]);
+		assertEquals("Inside stroked circle", 0xffffffff, pixels[80 * width + 100]);
+		assertEquals("Polyline", half, pixels[59 * width + 60]);
+		assertEquals("Polyline", half, pixels[60 * width + 60]);
+		assertEquals("Polyline cap", quarter, pixels[59 * width + 49]);
+		assertEquals("Past polyline cap", 0xffffffff, pixels[60 * width + 48]);
+	}
+
+	/**
+	 * The software renderer draws as the canvas does. Needs a display, and is
+	 * skipped without one. JavaFX anti-aliases with a different pattern of
+	 * samples, so the pixels on the edges of shapes differ a little: every
+	 * channel of every pixel must be within 64 of the canvas's, and those of
+	 * all but 1% of them within 16.
+	 */
+	@Test
+	public void softwareRendererMatchesJavaFXTest() throws Exception {
+		try {
+			Platform.startup(() -> {});
+		} catch (IllegalStateException e) {
+			// already started
+		} catch (RuntimeException e) {
+			Assume.assumeNoException("No display to draw the reference image on", e);
+		}
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+		paintModel.addCommands(renderedShapes());
+		int width = 300, height = 200;
+		FutureTask<int[]> reference = new FutureTask<int[]>(() -> {
+			Canvas canvas = new Canvas(width, height);
+			paintModel.executeAll(canvas.getGraphicsContext2D());
+			SnapshotParameters parameters = new SnapshotParameters();
+			parameters.setFill(Color.WHITE);
+			WritableImage image = canvas.snapshot(parameters, null);
+			int[] pixels = new int[width * height];
+			image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+			return pixels;
+		});
+		Platform.runLater(reference);
+		int[] expected = reference.get(10, TimeUnit.SECONDS);
+		int[] pixels = new SoftwareRenderer().render(paintModel, width, height);
+
+		int worst = 0, over = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			int difference = 0;
+			for (int shift = 0; shift < 32; shift += 8) {
+				difference = Math.max(difference, Math.abs((pixels[i] >>> shift & 0xff) - (expected[i] >>> shift & 0xff)));
+			}
+			worst = Math.max(worst, difference);
+			if (difference > 16) over++;
+		}
+		assertTrue("Largest difference " + worst, worst <= 64);
+		assertTrue(over + " pixels differ by more than 16", over <= pixels.length / 100);
+	}
+
+	/**
+	 * One of each shape, filled and outlined, with known colors.
+	 */
+	private List<PaintCommand> renderedShapes() {
+		RectangleCommand filledRectangle = new RectangleCommand(new Point(10, 10), new Point(40, 30));
+		filledRectangle.setColor(Color.RED);
+		filledRectangle.setFill(true);
+		RectangleCommand rectangle = new RectangleCommand(new Point(10, 65), new Point(40, 90));
+		CircleCommand filledCircle = new CircleCommand(new Point(90, 50), 14);
+		filledCircle.setColor(Color.BLUE);
+		filledCircle.setFill(true);
+		CircleCommand circle = new CircleCommand(new Point(100, 80), 10);
+		PolyLineCommand polyline = new PolyLineCommand();
+		polyline.add(50, 60);
+		polyline.add(70, 60);
+		polyline.add(70, 130);
+		SquiggleCommand squiggle = new SquiggleCommand();
+		for (int i = 0; i < 40; i++) {
+			squiggle.add(150 + 3 * i, 60 + (int) (20 * Math.sin(i / 4.0)));
+		}
+		for (PaintCommand c : List.of(rectangle, circle, polyline, squiggle)) {
+			c.setColor(Color.BLACK);
+			c.setFill(false);
+		}
+		return List.of(filledRectangle, rectangle, filledCircle, circle, polyline, squiggle);
+	}
+}
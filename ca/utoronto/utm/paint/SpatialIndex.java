@@ -0,0 +1,195 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A uniform grid over the canvas, recording which commands have bounds in
+ * each cell, so that geometric questions (what is under the cursor, what
+ * needs redrawing in a region) look at nearby commands instead of every
+ * command in the model.
+ *
+ * Commands whose bounds cover very many cells are kept in a separate list
+ * that every query checks, rather than being entered in each cell.
+ *
+ * Results are returned in z-order, the order the commands were added,
+ * so the last command in a result is drawn on top.
+ *
+ * @author
+ *
+ */
+class SpatialIndex {
+	static final int CELL_SIZE = 64; // pixels on a side
+	static final int MAX_CELLS = 256; // most cells a command is entered in
+
+	/**
+	 * Where one command is recorded in the index.
+	 */
+	private static class Entry {
+		PaintCommand command;
+		long z; // position in the drawing order
+		boolean large; // in the large list, rather than in cells
+		int cx1, cy1, cx2, cy2; // the cells covered, empty if cx2 < cx1
+		int stamp; // the last query that saw this entry
+	}
+
+	private HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+	private IdentityHashMap<PaintCommand, Entry> entries = new IdentityHashMap<PaintCommand, Entry>();
+	private ArrayList<Entry> large = new ArrayList<Entry>();
+	private long nextZ = 0;
+	private int queryStamp = 0;
+
+	int size() {
+		return this.entries.size();
+	}
+
+	void clear() {
+		this.cells.clear();
+		this.entries.clear();
+		this.large.clear();
+	}
+
+	/**
+	 * Add command on top of all the commands already in the index.
+	 */
+	void add(PaintCommand command) {
+		Entry entry = new Entry();
+		entry.command = command;
+		entry.z = this.nextZ++;
+		this.entries.put(command, entry);
+		this.insert(entry, command.getBounds());
+	}
+
+	void remove(PaintCommand command) {
+		Entry entry = this.entries.remove(command);
+		if (entry != null) {
+			this.delete(entry);
+		}
+	}
+
+	/**
+	 * Bring the index up to date after the bounds of command changed.
+	 */
+	void update(PaintCommand command) {
+		Entry entry = this.entries.get(command);
+		if (entry == null) {
+			return;
+		}
+		Rect bounds = command.getBounds();
+		// Growing squiggles usually stay within the same cells
+		if (!entry.large && !bounds.isEmpty() && entry.cx2 >= entry.cx1 && entry.cx1 == cell(bounds.minX)
+				&& entry.cy1 == cell(bounds.minY) && entry.cx2 == cell(bounds.maxX) && entry.cy2 == cell(bounds.maxY)) {
+			return;
+		}
+		this.delete(entry);
+		this.insert(entry, bounds);
+	}
+
+	/**
+	 * @return the commands whose bounds intersect region, in z-order
+	 */
+	List<PaintCommand> query(Rect region) {
+		ArrayList<Entry> found = new ArrayList<Entry>();
+		if (region.isEmpty()) {
+			return new ArrayList<PaintCommand>();
+		}
+		int stamp = ++this.queryStamp;
+		long cellCount = (long) (cell(region.maxX) - cell(region.minX) + 1) * (cell(region.maxY) - cell(region.minY) + 1);
+		if (cellCount > this.cells.size()) {
+			// The region covers more cells than are in use, visit those instead
+			for (ArrayList<Entry> list : this.cells.values()) {
+				this.collect(list, region, stamp, found);
+			}
+		} else {
+			for (int cx = cell(region.minX); cx <= cell(region.maxX); cx++) {
+				for (int cy = cell(region.minY); cy <= cell(region.maxY); cy++) {
+					ArrayList<Entry> list = this.cells.get(key(cx, cy));
+					if (list != null) {
+						this.collect(list, region, stamp, found);
+					}
+				}
+			}
+		}
+		this.collect(this.large, region, stamp, found);
+
+		found.sort((a, b) -> Long.compare(a.z, b.z));
+		ArrayList<PaintCommand> result = new ArrayList<PaintCommand>(found.size());
+		for (Entry entry : found) {
+			result.add(entry.command);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the commands whose bounds contain (x,y), in z-order
+	 */
+	List<PaintCommand> query(int x, int y) {
+		return this.query(new Rect(x, y, x, y));
+	}
+
+	private void collect(ArrayList<Entry> list, Rect region, int stamp, ArrayList<Entry> found) {
+		for (Entry entry : list) {
+			if (entry.stamp != stamp) {
+				entry.stamp = stamp;
+				if (entry.command.getBounds().intersects(region)) {
+					found.add(entry);
+				}
+			}
+		}
+	}
+
+	private void insert(Entry entry, Rect bounds) {
+		if (bounds.isEmpty()) {
+			entry.large = false;
+			entry.cx1 = entry.cy1 = 0;
+			entry.cx2 = entry.cy2 = -1;
+			return;
+		}
+		entry.cx1 = cell(bounds.minX);
+		entry.cy1 = cell(bounds.minY);
+		entry.cx2 = cell(bounds.maxX);
+		entry.cy2 = cell(bounds.maxY);
+		entry.large = (long) (entry.cx2 - entry.cx1 + 1) * (entry.cy2 - entry.cy1 + 1) > MAX_CELLS;
+		if (entry.large) {
+			this.large.add(entry);
+			return;
+		}
+		for (int cx = entry.cx1; cx <= entry.cx2; cx++) {
+			for (int cy = entry.cy1; cy <= entry.cy2; cy++) {
+				this.cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<Entry>()).add(entry);
+			}
+		}
+	}
+
+	private void delete(Entry entry) {
+		if (entry.large) {
+			this.large.remove(entry);
+			return;
+		}
+		for (int cx = entry.cx1; cx <= entry.cx2; cx++) {
+			for (int cy = entry.cy1; cy <= entry.cy2; cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Entry> list = this.cells.get(key);
+				if (list != null) {
+					list.remove(entry);
+					if (list.isEmpty()) {
+						this.cells.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the column, or row, of the cell holding coordinate
+	 */
+	static int cell(int coordinate) {
+		return Math.floorDiv(coordinate, CELL_SIZE);
+	}
+
+	static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+}
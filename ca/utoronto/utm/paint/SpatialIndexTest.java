@@ -0,0 +1,50 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class SpatialIndexTest {
+
+	@Test
+	public void spatialIndexTest() {
+		SpatialIndex index = new SpatialIndex();
+		CircleCommand below = new CircleCommand(new Point(10, 10), 5);
+		RectangleCommand large = new RectangleCommand(new Point(0, 0), new Point(100000, 100000)); // too many cells to enter in each
+		CircleCommand above = new CircleCommand(new Point(20, 20), 5);
+		index.add(below);
+		index.add(large);
+		index.add(above);
+		assertEquals("Z-order", List.of(below, large, above), index.query(new Rect(0, 0, 30, 30)));
+		assertEquals("Large, far from the others", List.of(large), index.query(50000, 50000));
+		assertEquals("Outside everything", List.of(), index.query(-10, -10));
+
+		// Moved to other cells, it is found there and no longer where it was, keeping its place in z-order
+		below.setCentre(new Point(1000, 1000));
+		index.update(below);
+		assertEquals("Moved away", List.of(large, above), index.query(new Rect(0, 0, 30, 30)));
+		assertEquals("Moved to", List.of(below, large), index.query(1000, 1000));
+
+		// A stroke growing across cells is found in the new ones
+		SquiggleCommand stroke = new SquiggleCommand();
+		stroke.add(-50, -50);
+		index.add(stroke);
+		for (int x = -49; x <= 300; x++) {
+			stroke.add(x, -50);
+			index.update(stroke);
+		}
+		assertEquals("Grown into", List.of(stroke), index.query(300, -50));
+		assertEquals("Between", List.of(stroke), index.query(new Rect(130, -60, 140, -40)));
+
+		index.remove(large);
+		index.remove(large); // not there any more, nothing happens
+		assertEquals("Large removed", List.of(), index.query(50000, 50000));
+		assertEquals("Others kept", List.of(above), index.query(new Rect(0, 0, 30, 30)));
+		index.remove(stroke);
+		assertEquals("Removed from every cell", List.of(), index.query(new Rect(-100, -100, 400, 0)));
+		assertEquals("Size", 2, index.size());
+		index.add(large);
+		assertEquals("Added again, on top", List.of(below, large), index.query(1000, 1000));
+	}
+}
@@ -1,44 +1,121 @@
 package ca.utoronto.utm.paint;
 import javafx.scene.canvas.GraphicsContext;
-import java.util.ArrayList;
+
+import java.io.IOException;
+import java.util.List;
 
 public class SquiggleCommand extends PaintCommand {
-	private ArrayList<Point> points=new ArrayList<Point>();
+	private PointBuffer points=new PointBuffer();
+	private Rect bounds = Rect.EMPTY; // grown as points are added
 	
 	public void add(Point p){ 
-		this.points.add(p); 
-		this.setChanged();
-		this.notifyObservers();
+		this.add(p.x, p.y);
+	}
+	public void add(int x, int y){ 
+		this.points.add(x, y); 
+		this.bounds = this.bounds.union(x, y);
+		// Only the new segment needs to be drawn
+		int n = this.points.size();
+		int last = n > 1 ? n-2 : n-1;
+		this.changed(Rect.of(this.points.getX(last), this.points.getY(last), x, y));
+	}
+	@Override
+	String getShapeName() {
+		return "Squiggle";
+	}
+	@Override
+	Rect getBounds() {
+		return this.bounds;
+	}
+	/**
+	 * @return a read only view of the points of this
+	 */
+	public List<Point> getPoints(){ return this.points.asList(); }
+	PointBuffer getPointBuffer(){ return this.points; }
+	
+	/**
+	 * Drop the points of this from index from on, as when they are about to be replaced.
+	 */
+	void truncate(int from){
+		while(this.points.size() > from) {
+			this.points.removeLast();
+		}
+		this.changed(this.bounds);
+	}
+	
+	/**
+	 * Drop the points of this that simplifier considers redundant.
+	 */
+	void simplify(StrokeSimplifier simplifier){
+		PointBuffer simplified = simplifier.simplify(this.points);
+		if (simplified.size() < this.points.size()) {
+			this.points = simplified;
+			this.changed(this.bounds);
+		}
 	}
-	public ArrayList<Point> getPoints(){ return this.points; }
 	
 	@Override
-	public String report() {
-		int r = (int)(this.getColor().getRed() * 255);
-		int g = (int)(this.getColor().getGreen() * 255);
-		int b = (int)(this.getColor().getBlue() * 255);
-
-		String s = "";
-		s+="Squiggle\n";
-		s+="\tcolor:"+r+","+g+","+b+"\n";
-		s+="\tfilled:"+this.isFill()+"\n";
-		s+="\tpoints\n";
-		for (Point c: this.getPoints()) {
-			s+="\t\tpoint:" + c.report() + "\n";
+	PaintCommand simplified(StrokeSimplifier simplifier) {
+		PointBuffer simplified = simplifier.simplify(this.points);
+		if (simplified.size() == this.points.size()) return this;
+		SquiggleCommand copy = new SquiggleCommand();
+		copy.setColor(this.getColor());
+		copy.setFill(this.isFill());
+		copy.points = simplified;
+		copy.bounds = this.bounds;
+		return copy;
+	}
+	
+	@Override
+	void write(PaintFileWriter writer) throws IOException {
+		writer.writeShape("Squiggle", this.getColor(), this.isFill());
+		writer.append("\tpoints\n");
+		for (int i = 0; i < this.points.size(); i++) {
+			writer.append("\t\tpoint:").appendPoint(this.points.getX(i), this.points.getY(i)).append('\n');
+		}
+		writer.append("\tend points\n");
+		writer.append("EndSquiggle\n");
+	}
+	
+	@Override
+	void write(PaintBinaryWriter writer) throws IOException {
+		writer.writeShape(PaintBinaryFileParser.SQUIGGLE, this.getColor(), this.isFill());
+		writer.writePointCount(this.points.size());
+		for (int i = 0; i < this.points.size(); i++) {
+			writer.writePoint(this.points.getX(i), this.points.getY(i));
 		}
-		s+= "\tend points\n";
-		s+="EndSquiggle\n";
-		return s;
 	}
 	
 	@Override
 	public void execute(GraphicsContext g) {
-		ArrayList<Point> points = this.getPoints();
+		PointBuffer points = this.points;
 		g.setStroke(this.getColor());
 		for(int i=0;i<points.size()-1;i++) {
-			Point p1 = points.get(i);
-			Point p2 = points.get(i+1);
-			g.strokeLine(p1.x, p1.y, p2.x, p2.y);
+			g.strokeLine(points.getX(i), points.getY(i), points.getX(i+1), points.getY(i+1));
+		}
+	}
+	
+	@Override
+	void execute(GraphicsContext g, double scale) {
+		if(scale>=1) {
+			this.execute(g);
+			return;
+		}
+		// Segments under a pixel long are not drawn, their neighbours join up instead
+		double[] xs = new double[this.points.size()], ys = new double[this.points.size()];
+		int n = this.points.thin(1/scale, xs, ys);
+		g.setStroke(this.getColor());
+		for(int i=0;i<n-1;i++) {
+			g.strokeLine(xs[i], ys[i], xs[i+1], ys[i+1]);
+		}
+	}
+	
+	@Override
+	void execute(Raster r) {
+		PointBuffer points = this.points;
+		r.setStroke(this.getArgb());
+		for(int i=0;i<points.size()-1;i++) {
+			r.strokeLine(points.getX(i), points.getY(i), points.getX(i+1), points.getY(i+1));
 		}
 	}
 		
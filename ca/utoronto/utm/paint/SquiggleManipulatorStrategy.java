@@ -9,7 +9,20 @@ class SquiggleManipulatorStrategy extends ShapeManipulatorStrategy {
 	private SquiggleCommand squiggleCommand = new SquiggleCommand();
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		this.squiggleCommand.add(new Point((int)e.getX(), (int)e.getY()));
+		int x = (int)e.getX(), y = (int)e.getY();
+		// While the mouse pauses, drag events repeat the same point
+		PointBuffer points = this.squiggleCommand.getPointBuffer();
+		int n = points.size();
+		if (n > 0 && points.getX(n-1) == x && points.getY(n-1) == y) return;
+		this.squiggleCommand.add(x, y);
+	}
+	
+	@Override
+	public void mouseReleased(MouseEvent e) {
+		StrokeSimplifier simplifier = StrokeSimplifier.forCapture();
+		if (simplifier != null) {
+			this.squiggleCommand.simplify(simplifier);
+		}
 	}
 
 	@Override
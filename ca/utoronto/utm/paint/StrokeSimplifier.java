@@ -0,0 +1,162 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Arrays;
+
+/**
+ * Remove points from a stroke that do not change its shape by more than a
+ * tolerance, using the Ramer-Douglas-Peucker algorithm. Every point removed
+ * lies within tolerance pixels of the simplified stroke, and the first and
+ * last points are always kept.
+ *
+ * Dragging the mouse produces a point per event, so straight runs and
+ * pauses give long runs of points that are collinear or repeated. These
+ * are what is removed.
+ *
+ * Where simplification happens is set with system properties:
+ *   paint.simplify.tolerance  in pixels, 0 to MAX_TOLERANCE, default 1
+ *   paint.simplify.capture    simplify squiggles as they are drawn, default true
+ *   paint.simplify.load       simplify squiggles and polylines as text files are opened, default true
+ *   paint.simplify.save       simplify squiggles and polylines as files are saved, default false
+ *
+ * @author
+ *
+ */
+class StrokeSimplifier {
+	static final double MAX_TOLERANCE = 8; // pixels
+	static final double DEFAULT_TOLERANCE = 1;
+
+	private static final StrokeSimplifier CONFIGURED = configured();
+
+	private final double tolerance;
+	private final boolean capture, load, save;
+
+	StrokeSimplifier(double tolerance) {
+		this(tolerance, true, true, false);
+	}
+
+	private StrokeSimplifier(double tolerance, boolean capture, boolean load, boolean save) {
+		if (!(tolerance >= 0 && tolerance <= MAX_TOLERANCE)) { // also rejects NaN
+			throw new IllegalArgumentException("Tolerance must be between 0 and " + MAX_TOLERANCE + " pixels: " + tolerance);
+		}
+		this.tolerance = tolerance;
+		this.capture = capture;
+		this.load = load;
+		this.save = save;
+	}
+
+	private static StrokeSimplifier configured() {
+		double tolerance = DEFAULT_TOLERANCE;
+		String value = System.getProperty("paint.simplify.tolerance");
+		if (value != null) {
+			try {
+				tolerance = Math.max(0, Math.min(MAX_TOLERANCE, Double.parseDouble(value)));
+			} catch (NumberFormatException e) {
+				System.out.println("Ignoring paint.simplify.tolerance=" + value);
+			}
+		}
+		return new StrokeSimplifier(tolerance, flag("paint.simplify.capture", true), flag("paint.simplify.load", true),
+				flag("paint.simplify.save", false));
+	}
+
+	private static boolean flag(String name, boolean fallback) {
+		String value = System.getProperty(name);
+		return value == null ? fallback : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * @return the simplifier for strokes as they are drawn, null if they are kept as is
+	 */
+	static StrokeSimplifier forCapture() {
+		return CONFIGURED.capture ? CONFIGURED : null;
+	}
+
+	/**
+	 * @return the simplifier for strokes read from a file, null if they are kept as is
+	 */
+	static StrokeSimplifier forLoad() {
+		return CONFIGURED.load ? CONFIGURED : null;
+	}
+
+	/**
+	 * @return the simplifier for strokes written to a file, null if they are kept as is
+	 */
+	static StrokeSimplifier forSave() {
+		return CONFIGURED.save ? CONFIGURED : null;
+	}
+
+	double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * @return the points of stroke that are kept, in order, in a new buffer
+	 * with no spare capacity
+	 */
+	PointBuffer simplify(PointBuffer stroke) {
+		int n = stroke.size();
+		boolean[] keep = new boolean[n];
+		if (n > 0) {
+			keep[0] = true;
+			keep[n - 1] = true;
+		}
+		// Ranges still to split, as pairs of indices of kept points. An
+		// explicit stack, as strokes may have millions of points.
+		int[] stack = new int[64];
+		int top = 0;
+		if (n > 2) {
+			stack[top++] = 0;
+			stack[top++] = n - 1;
+		}
+		double limit = this.tolerance * this.tolerance + 1e-9; // so rounding does not keep collinear points
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			int farthest = -1;
+			double max = limit;
+			for (int i = first + 1; i < last; i++) {
+				double d = distanceSquared(stroke, i, first, last);
+				if (d > max) {
+					max = d;
+					farthest = i;
+				}
+			}
+			if (farthest < 0) {
+				continue; // everything between first and last is close enough
+			}
+			keep[farthest] = true;
+			if (top + 4 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			}
+			if (farthest - first > 1) {
+				stack[top++] = first;
+				stack[top++] = farthest;
+			}
+			if (last - farthest > 1) {
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+
+		PointBuffer simplified = new PointBuffer();
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				simplified.add(stroke.getX(i), stroke.getY(i));
+			}
+		}
+		simplified.trimToSize();
+		return simplified;
+	}
+
+	/**
+	 * @return the square of the distance from point i to the segment from point a to point b
+	 */
+	private static double distanceSquared(PointBuffer stroke, int i, int a, int b) {
+		double px = stroke.getX(i), py = stroke.getY(i);
+		double ax = stroke.getX(a), ay = stroke.getY(a);
+		double dx = stroke.getX(b) - ax, dy = stroke.getY(b) - ay;
+		double length = dx * dx + dy * dy;
+		double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length));
+		double ex = px - (ax + t * dx), ey = py - (ay + t * dy);
+		return ex * ex + ey * ey;
+	}
+}
@@ -0,0 +1,219 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Off-screen images of square tiles of the canvas, each holding the
+ * committed commands of a paint model already drawn. A tile is drawn the
+ * first time it is needed and then reused until a command overlapping it
+ * changes, so redrawing a region costs a few image copies, however many
+ * commands are under it.
+ *
+ * The tiles are of the drawing at one scale: tile (tx,ty) shows the model
+ * from (tx,ty)*TILE_SIZE/scale, TILE_SIZE/scale on a side, magnified by
+ * scale. Only the tiles most recently used are kept, SCREENS_KEPT screens
+ * full of them for the size of the view, so panning across a large drawing
+ * does not fill memory, yet a full repaint never pushes out tiles it needs.
+ *
+ * The topmost command of the model is the live command, the one being drawn
+ * or edited. It is left out of the tiles and drawn on top of them each time,
+ * so changing it does not invalidate anything.
+ *
+ * Must be used on the JavaFX application thread.
+ *
+ * @author
+ *
+ */
+class TileCache {
+	static final int TILE_SIZE = 256; // pixels on a side
+	static final int SCREENS_KEPT = 4; // of tiles, for the size of the view
+	static final int MIN_TILES = 128; // kept, however small the view
+
+	private PaintModel model;
+	private double scale; // pixels per unit of the model
+	private int maxTiles = MIN_TILES; // kept, see setViewSize
+	private LinkedHashMap<Long, WritableImage> tiles = new LinkedHashMap<Long, WritableImage>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, WritableImage> eldest) {
+			return this.size() > TileCache.this.maxTiles;
+		}
+	};
+	private PaintCommand live = null; // left out of the tiles
+	private Canvas scratch = new Canvas(TILE_SIZE, TILE_SIZE); // tiles are drawn here, then copied
+	private SnapshotParameters snapshotParameters = new SnapshotParameters();
+	private RenderStatistics statistics = RenderStatistics.get();
+
+	TileCache(PaintModel model, double scale) {
+		this.model = model;
+		this.scale = scale;
+		this.snapshotParameters.setFill(Color.TRANSPARENT);
+	}
+
+	PaintCommand getLive() {
+		return this.live;
+	}
+
+	double getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * Keep SCREENS_KEPT times as many tiles as a view of width by height
+	 * pixels shows at once, dropping the least recently used if there are
+	 * now too many.
+	 */
+	void setViewSize(double width, double height) {
+		// One more in each direction, as the view need not line up with the tiles
+		int columns = (int) Math.ceil(width / TILE_SIZE) + 1, rows = (int) Math.ceil(height / TILE_SIZE) + 1;
+		this.maxTiles = Math.max(MIN_TILES, SCREENS_KEPT * columns * rows);
+		Iterator<Long> eldest = this.tiles.keySet().iterator();
+		while (this.tiles.size() > this.maxTiles) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * @return the number of tiles kept at most
+	 */
+	int getMaxTiles() {
+		return this.maxTiles;
+	}
+
+	/**
+	 * @return the pixels, at the scale of this, that region of the model covers
+	 */
+	Rect toPixels(Rect region) {
+		if (region.isEmpty()) return region;
+		return new Rect((int) Math.floor(region.minX * this.scale), (int) Math.floor(region.minY * this.scale),
+				(int) Math.ceil(region.maxX * this.scale), (int) Math.ceil(region.maxY * this.scale));
+	}
+
+	/**
+	 * @return the region of the model drawn on the pixels in region, at the scale of this
+	 */
+	Rect toModel(Rect region) {
+		if (region.isEmpty()) return region;
+		return new Rect((int) Math.floor(region.minX / this.scale), (int) Math.floor(region.minY / this.scale),
+				(int) Math.ceil(region.maxX / this.scale), (int) Math.ceil(region.maxY / this.scale));
+	}
+
+	/**
+	 * @return the pixels that command may paint, at the scale of this
+	 */
+	private Rect reach(PaintCommand command) {
+		return this.toPixels(command.getBounds().grow(PaintCommand.STROKE_MARGIN)).grow(PaintCommand.STROKE_MARGIN);
+	}
+
+	/**
+	 * Forget the tiles that region of the model reaches into, they are drawn
+	 * again the next time they are needed.
+	 * @param region null for every tile
+	 */
+	void invalidate(Rect region) {
+		if (region == null) {
+			this.tiles.clear();
+			return;
+		}
+		Rect reach = this.toPixels(region.grow(PaintCommand.STROKE_MARGIN)).grow(PaintCommand.STROKE_MARGIN);
+		if (reach.isEmpty()) {
+			return;
+		}
+		for (int tx = tile(reach.minX); tx <= tile(reach.maxX); tx++) {
+			for (int ty = tile(reach.minY); ty <= tile(reach.maxY); ty++) {
+				this.tiles.remove(key(tx, ty));
+			}
+		}
+	}
+
+	/**
+	 * Make the topmost command of the model the live command. If that is a
+	 * different command than before, the tiles under both are invalidated.
+	 * @return the region of the model that has to be redrawn because the live command changed
+	 */
+	Rect updateLive() {
+		PaintCommand top = this.model.getTopCommand();
+		if (top == this.live) {
+			return Rect.EMPTY;
+		}
+		Rect moved = Rect.EMPTY;
+		if (this.live != null) {
+			moved = moved.union(this.live.getBounds());
+		}
+		if (top != null) {
+			moved = moved.union(top.getBounds());
+		}
+		this.live = top;
+		this.invalidate(moved);
+		return moved;
+	}
+
+	/**
+	 * Draw the part of the model inside clip, in pixels at the scale of this:
+	 * the tiles reaching into it, and the live command. The caller clears and
+	 * clips g to clip beforehand.
+	 */
+	void draw(GraphicsContext g, Rect clip) {
+		if (clip.isEmpty()) {
+			return;
+		}
+		for (int tx = tile(clip.minX); tx <= tile(clip.maxX); tx++) {
+			for (int ty = tile(clip.minY); ty <= tile(clip.maxY); ty++) {
+				g.drawImage(this.getTile(tx, ty), tx * TILE_SIZE, ty * TILE_SIZE);
+			}
+		}
+		if (this.live != null && this.reach(this.live).intersects(clip)) {
+			g.save();
+			g.scale(this.scale, this.scale);
+			this.statistics.draw(this.live, g, this.scale);
+			g.restore();
+		}
+	}
+
+	private WritableImage getTile(int tx, int ty) {
+		Long key = key(tx, ty);
+		WritableImage image = this.tiles.get(key);
+		if (image == null) {
+			image = this.render(tx, ty);
+			this.tiles.put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Draw the committed commands reaching into tile (tx,ty) into a new image.
+	 */
+	private WritableImage render(int tx, int ty) {
+		int x = tx * TILE_SIZE, y = ty * TILE_SIZE;
+		Rect area = new Rect(x, y, x + TILE_SIZE - 1, y + TILE_SIZE - 1).grow(PaintCommand.STROKE_MARGIN);
+		GraphicsContext g = this.scratch.getGraphicsContext2D();
+		this.statistics.tileDrawn();
+		g.save();
+		g.clearRect(0, 0, TILE_SIZE, TILE_SIZE);
+		g.translate(-x, -y);
+		g.scale(this.scale, this.scale);
+		for (PaintCommand c : this.model.getCommandsIn(this.toModel(area).grow(PaintCommand.STROKE_MARGIN))) {
+			if (!c.equals(this.live)) {
+				this.statistics.draw(c, g, this.scale);
+			}
+		}
+		g.restore();
+		return this.scratch.snapshot(this.snapshotParameters, new WritableImage(TILE_SIZE, TILE_SIZE));
+	}
+
+	private static int tile(int coordinate) {
+		return Math.floorDiv(coordinate, TILE_SIZE);
+	}
+
+	private static long key(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xffffffffL);
+	}
+}
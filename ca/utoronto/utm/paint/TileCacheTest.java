@@ -0,0 +1,54 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TileCacheTest {
+
+	@Test
+	public void tileCacheTest() {
+		TileCache tiles = new TileCache(new PaintModel(), 0.25);
+		assertEquals("To pixels", new Rect(0, 0, 250, 25).toString(), tiles.toPixels(new Rect(0, 0, 1000, 100)).toString());
+		assertEquals("To pixels, rounded out", new Rect(-1, -1, 1, 1).toString(), tiles.toPixels(new Rect(-3, -3, 3, 3)).toString());
+		assertEquals("To model", new Rect(-4, 0, 1000, 100).toString(), tiles.toModel(new Rect(-1, 0, 250, 25)).toString());
+		Rect region = new Rect(-7, 3, 333, 41);
+		Rect back = tiles.toModel(tiles.toPixels(region));
+		assertEquals("Round trip covers", region.toString(), back.intersection(region).toString());
+		assertSame("Empty", Rect.EMPTY, tiles.toPixels(Rect.EMPTY));
+
+		// Enough tiles are kept for a full repaint of a large window, several times over
+		tiles.setViewSize(3840, 2160);
+		assertTrue("Kept for a 4K view", tiles.getMaxTiles() >= TileCache.SCREENS_KEPT * 15 * 9);
+		tiles.setViewSize(100, 100);
+		assertEquals("Kept for a small view", TileCache.MIN_TILES, tiles.getMaxTiles());
+	}
+
+	@Test
+	public void levelOfDetailTest() {
+		PointBuffer stroke = new PointBuffer();
+		for (int i = 0; i < 1000; i++) {
+			stroke.add(i / 3, (int) (100 * Math.sin(i / 100.0)));
+		}
+		double[] xs = new double[stroke.size()], ys = new double[stroke.size()];
+		int previous = stroke.size();
+		for (double scale : new double[] { 1 / 2.0, 1 / 8.0, 1 / 64.0 }) {
+			// As a stroke is drawn at scale, see SquiggleCommand.execute(GraphicsContext, double)
+			double spacing = 1 / scale;
+			int n = stroke.thin(spacing, xs, ys);
+			assertTrue("Fewer points at " + scale, n < previous);
+			previous = n;
+			assertEquals("First point kept", stroke.getX(0), xs[0], 0);
+			assertEquals("First point kept", stroke.getY(0), ys[0], 0);
+			assertEquals("Last point kept", stroke.getX(stroke.size() - 1), xs[n - 1], 0);
+			assertEquals("Last point kept", stroke.getY(stroke.size() - 1), ys[n - 1], 0);
+			// Every point left out is less than a pixel, in each direction, from one kept
+			for (int i = 0; i < stroke.size(); i++) {
+				double nearest = Double.MAX_VALUE;
+				for (int k = 0; k < n; k++) {
+					nearest = Math.min(nearest, Math.max(Math.abs(xs[k] - stroke.getX(i)), Math.abs(ys[k] - stroke.getY(i))));
+				}
+				assertTrue("Point " + i + " at " + scale, nearest < spacing);
+			}
+		}
+	}
+}
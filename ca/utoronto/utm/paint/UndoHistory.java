@@ -0,0 +1,219 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayDeque;
+
+/**
+ * The edits made to a paint model, so they can be undone and redone. Each
+ * edit is recorded as the small change it made, never as a copy of the
+ * model, and undoing or redoing it costs the size of that change, however
+ * large the drawing is.
+ *
+ * A shape that is added is recorded once, as added, when it is started.
+ * The changes made to it while it is being drawn, a circle's radius as the
+ * mouse is dragged for instance, are not recorded: the command itself holds
+ * the result, so undoing removes it and redoing puts the same command back.
+ *
+ * The history keeps to a memory budget, estimated from the edits it holds.
+ * An added shape costs little while it is in the model, but once undone the
+ * history is all that keeps it. When the budget is exceeded the oldest edits
+ * are forgotten, then the redos furthest from the present. The budget, in
+ * bytes, is read from the paint.undo.budget system property.
+ *
+ * Must be used on the JavaFX application thread.
+ *
+ * @author
+ *
+ */
+class UndoHistory {
+	static final long DEFAULT_BUDGET = 64L << 20; // bytes
+	private static final long EDIT_OVERHEAD = 48; // bytes, an edit object and its place in a deque
+
+	private ArrayDeque<Edit> undos = new ArrayDeque<Edit>(); // most recent first
+	private ArrayDeque<Edit> redos = new ArrayDeque<Edit>(); // next to redo first
+	private long budget;
+	private long bytes = 0; // the estimated size of the edits held
+
+	UndoHistory() {
+		this(Long.getLong("paint.undo.budget", DEFAULT_BUDGET));
+	}
+
+	/**
+	 * @param budget the estimated bytes the history may hold
+	 */
+	UndoHistory(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * An edit made to a paint model, that can be undone and then redone.
+	 */
+	abstract static class Edit {
+		abstract void undo();
+
+		abstract void redo();
+
+		/**
+		 * @return the estimated bytes kept alive by this edit alone, in its current state
+		 */
+		abstract long size();
+	}
+
+	/**
+	 * Record edit, which has just been made. Anything that could be redone is forgotten.
+	 */
+	void record(Edit edit) {
+		for (Edit e : this.redos) {
+			this.bytes -= e.size();
+		}
+		this.redos.clear();
+		this.undos.push(edit);
+		this.bytes += edit.size();
+		this.evict();
+	}
+
+	boolean canUndo() {
+		return !this.undos.isEmpty();
+	}
+
+	boolean canRedo() {
+		return !this.redos.isEmpty();
+	}
+
+	/**
+	 * Undo the most recent edit, if there is one.
+	 */
+	void undo() {
+		if (this.undos.isEmpty()) return;
+		Edit edit = this.undos.pop();
+		this.bytes -= edit.size();
+		edit.undo();
+		this.bytes += edit.size();
+		this.redos.push(edit);
+		this.evict();
+	}
+
+	/**
+	 * Redo the most recently undone edit, if there is one.
+	 */
+	void redo() {
+		if (this.redos.isEmpty()) return;
+		Edit edit = this.redos.pop();
+		this.bytes -= edit.size();
+		edit.redo();
+		this.bytes += edit.size();
+		this.undos.push(edit);
+		this.evict();
+	}
+
+	void clear() {
+		this.undos.clear();
+		this.redos.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * @return the estimated bytes held by this
+	 */
+	long getSize() {
+		return this.bytes;
+	}
+
+	/**
+	 * Forget edits, oldest first, then the redos furthest away, until this
+	 * is within its budget.
+	 */
+	private void evict() {
+		while (this.bytes > this.budget && !this.undos.isEmpty()) {
+			this.bytes -= this.undos.removeLast().size();
+		}
+		while (this.bytes > this.budget && !this.redos.isEmpty()) {
+			this.bytes -= this.redos.removeLast().size();
+		}
+	}
+
+	/**
+	 * @return the estimated bytes used by command
+	 */
+	static long footprint(PaintCommand command) {
+		long size = 64; // the command, its color and bounds
+		if (command instanceof SquiggleCommand) {
+			size += 8L * ((SquiggleCommand) command).getPointBuffer().size();
+		} else if (command instanceof PolyLineCommand) {
+			size += 8L * ((PolyLineCommand) command).getPointBuffer().size();
+		}
+		return size;
+	}
+
+	/**
+	 * A command added to the top of a model.
+	 */
+	static class Added extends Edit {
+		private PaintModel model;
+		private PaintCommand command;
+		private boolean undone = false;
+
+		Added(PaintModel model, PaintCommand command) {
+			this.model = model;
+			this.command = command;
+		}
+
+		@Override
+		void undo() {
+			this.model.removeCommand(this.command);
+			this.undone = true;
+		}
+
+		@Override
+		void redo() {
+			this.model.addCommand(this.command);
+			this.undone = false;
+		}
+
+		@Override
+		long size() {
+			return EDIT_OVERHEAD + (this.undone ? footprint(this.command) : 0);
+		}
+	}
+
+	/**
+	 * Points appended to the end of a polyline.
+	 */
+	static class PointsAppended extends Edit {
+		private PolyLineCommand polyline;
+		private int count;
+		private int[] removed = null; // the points, x and y, while undone
+
+		PointsAppended(PolyLineCommand polyline, int count) {
+			this.polyline = polyline;
+			this.count = count;
+		}
+
+		@Override
+		void undo() {
+			PointBuffer points = this.polyline.getPointBuffer();
+			int n = Math.min(this.count, points.size());
+			this.removed = new int[2 * n];
+			for (int i = 0; i < n; i++) {
+				int j = points.size() - n + i;
+				this.removed[2 * i] = points.getX(j);
+				this.removed[2 * i + 1] = points.getY(j);
+			}
+			for (int i = 0; i < n; i++) {
+				this.polyline.remove();
+			}
+		}
+
+		@Override
+		void redo() {
+			for (int i = 0; i < this.removed.length; i += 2) {
+				this.polyline.add(this.removed[i], this.removed[i + 1]);
+			}
+			this.removed = null;
+		}
+
+		@Override
+		long size() {
+			return EDIT_OVERHEAD + (this.removed == null ? 0 : 4L * this.removed.length);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package ca.utoronto.utm.paint;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+
+public class UndoHistoryTest {
+
+	@Test
+	public void undoTest() throws IOException {
+		PaintModel paintModel = new PaintModel();
+		assertTrue(new PaintFileParser().parse(Paths.get("samplefiles/multishapes.txt"), paintModel));
+		String loaded = report(paintModel);
+		UndoHistory history = paintModel.getHistory();
+
+		// Draw a circle, then a polyline of three clicks
+		CircleCommand circle = new CircleCommand(new Point(10, 10), 5);
+		paintModel.addCommand(circle);
+		history.record(new UndoHistory.Added(paintModel, circle));
+		PolyLineCommand polyline = new PolyLineCommand();
+		polyline.add(1, 1);
+		paintModel.addCommand(polyline);
+		history.record(new UndoHistory.Added(paintModel, polyline));
+		polyline.add(2, 3);
+		history.record(new UndoHistory.PointsAppended(polyline, 1));
+		polyline.add(4, 5);
+		history.record(new UndoHistory.PointsAppended(polyline, 1));
+		String drawn = report(paintModel);
+
+		history.undo();
+		assertEquals("Undo appended point", 2, polyline.getPoints().size());
+		history.undo();
+		history.undo();
+		history.undo();
+		assertFalse(history.canUndo());
+		assertEquals("Undo all", loaded, report(paintModel));
+		while (history.canRedo()) history.redo();
+		assertEquals("Redo all", drawn, report(paintModel));
+
+		// A new edit forgets what could be redone
+		history.undo();
+		history.record(new UndoHistory.PointsAppended(polyline, 0));
+		assertFalse(history.canRedo());
+
+		// Over budget, the oldest edits are forgotten
+		UndoHistory small = new UndoHistory(1000);
+		for (int i = 0; i < 100; i++) {
+			SquiggleCommand squiggle = new SquiggleCommand();
+			paintModel.addCommand(squiggle);
+			small.record(new UndoHistory.Added(paintModel, squiggle));
+		}
+		assertTrue("Within budget", small.getSize() <= 1000);
+		int undone = 0;
+		while (small.canUndo()) {
+			small.undo();
+			undone++;
+		}
+		assertTrue("Oldest forgotten", undone < 100);
+		assertTrue("Within budget after undo", small.getSize() <= 1000);
+	}
+
+	/**
+	 * @return the model as it would be saved
+	 */
+	private String report(PaintModel paintModel) {
+		StringWriter s = new StringWriter();
+		paintModel.save(new PrintWriter(s));
+		return s.toString();
+	}
+}
@@ -1,29 +1,46 @@
 package ca.utoronto.utm.paint;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 public class View implements EventHandler<ActionEvent>{
+	// Binary files at least this large, in bytes, with an up to date index are opened lazily
+	private static final long LAZY_BYTES = Long.getLong("paint.open.lazy", 64L << 20);
 
 	private PaintModel paintModel;
 	private PaintPanel paintPanel;
 	private ShapeChooserPanel shapeChooserPanel;
 	private Stage stage;
+	
+	// Reports on, and allows cancelling, a file being opened in the background
+	private Label statusLabel;
+	private ProgressBar progressBar;
+	private Button cancelButton;
+	private PaintFileLoader loader; // the open in progress, if any
+	private PaintJournal journal; // records the changes to the model, if there is one
+	private SaveFileLayout saveFile; // of the binary file last opened or saved, if any
 
 	public View(PaintModel model, Stage stage){
 		this.stage = stage;
@@ -38,6 +55,18 @@ public class View implements EventHandler<ActionEvent>{
 	public void setPaintModel(PaintModel paintModel) {
 		this.paintModel=paintModel;
 		this.paintPanel.setPaintModel(paintModel);
+		if (this.journal != null) {
+			this.journal.setPaintModel(paintModel);
+		}
+	}
+	
+	/**
+	 * Journal the changes to whichever model this shows, from now on.
+	 * @param journal
+	 */
+	void setJournal(PaintJournal journal) {
+		this.journal = journal;
+		journal.setPaintModel(this.paintModel);
 	}
 	private void initUI(Stage stage) {
 
@@ -48,6 +77,7 @@ public class View implements EventHandler<ActionEvent>{
 		root.setTop(createMenuBar());
 		root.setCenter(this.paintPanel);
 		root.setLeft(this.shapeChooserPanel);
+		root.setBottom(createStatusBar());
 
 		Scene scene = new Scene(root);
 		stage.setScene(scene);
@@ -63,6 +93,17 @@ public class View implements EventHandler<ActionEvent>{
 		return shapeChooserPanel;
 	}
 
+	private HBox createStatusBar() {
+		this.statusLabel = new Label("");
+		this.progressBar = new ProgressBar(0);
+		this.cancelButton = new Button("Cancel");
+		this.cancelButton.setOnAction(event -> this.cancelOpen());
+		this.progressBar.setVisible(false);
+		this.cancelButton.setVisible(false);
+		
+		return new HBox(10, this.progressBar, this.cancelButton, this.statusLabel);
+	}
+
 	private MenuBar createMenuBar() {
 
 		MenuBar menuBar = new MenuBar();
@@ -112,10 +153,21 @@ public class View implements EventHandler<ActionEvent>{
 		menu.getItems().add(new SeparatorMenuItem());
 
 		menuItem = new MenuItem("Undo");
+		menuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
 		menuItem.setOnAction(this);
 		menu.getItems().add(menuItem);
 
 		menuItem = new MenuItem("Redo");
+		menuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Y"));
+		menuItem.setOnAction(this);
+		menu.getItems().add(menuItem);
+
+		menuBar.getMenus().add(menu);
+
+		// A menu for View
+		menu = new Menu("View");
+
+		menuItem = new CheckMenuItem("Frame Times");
 		menuItem.setOnAction(this);
 		menu.getItems().add(menuItem);
 
@@ -136,16 +188,8 @@ public class View implements EventHandler<ActionEvent>{
 			FileChooser fc = new FileChooser();
 			File file = fc.showOpenDialog(this.stage);
 			if (file != null) {
-			try {
 				System.out.println("Opening: " + file.getName() + "." + "\n");
-				BufferedReader bufferedReader= new BufferedReader(new FileReader(file)); // FIX THIS
-				PaintModel paintModel = new PaintModel();
-				PaintFileParser parser = new PaintFileParser();
-				parser.parse(bufferedReader,  paintModel);
-				this.setPaintModel(paintModel);
-			} catch(IOException e) {
-				System.out.println("Open command unable to execute. Try again." + "\n");
-			}
+				this.open(file);
 			}else {
 				System.out.println("Open command cancelled by user." + "\n");
 			}
@@ -157,9 +201,18 @@ public class View implements EventHandler<ActionEvent>{
 			try {
 				// This is where a real application would open the file.
 				System.out.println("Saving: " + file.getName() + "." + "\n");
-				// Add something like the following...
-				PrintWriter writer = new PrintWriter(file);
-				View.save(writer, this.paintModel);
+				// Files named with the binary extension are saved in the binary format
+				// and, if it is the file last opened or saved, incrementally
+				if (file.getName().endsWith(PaintBinaryFileParser.EXTENSION) && this.paintModel instanceof LazyPaintModel) {
+					this.saveReplacing(file.toPath());
+				} else if (file.getName().endsWith(PaintBinaryFileParser.EXTENSION)) {
+					if (this.saveFile == null || !this.saveFile.getPath().equals(file.toPath())) {
+						this.saveFile = new SaveFileLayout(file.toPath(), StrokeSimplifier.forSave());
+					}
+					this.saveFile.save(this.paintModel);
+				} else {
+					this.paintModel.save(new PrintWriter(file), StrokeSimplifier.forSave());
+				}
 			} catch(IOException e) {
 				System.out.println("Save command unable to execute. Try again." + "\n");
 			}
@@ -168,12 +221,120 @@ public class View implements EventHandler<ActionEvent>{
 			}
 		} else if (command.equals("New")) {
 			// this.paintModel.reset();
+			this.cancelOpen();
 			this.setPaintModel(new PaintModel());
 		} else if (command.equals("Exit")) {
 			Platform.exit();
+		} else if (command.equals("Undo")) {
+			this.paintPanel.finishEdit();
+			this.paintModel.getHistory().undo();
+		} else if (command.equals("Redo")) {
+			this.paintPanel.finishEdit();
+			this.paintModel.getHistory().redo();
+		} else if (command.equals("Frame Times")) {
+			this.paintPanel.setShowFrameTimes(((CheckMenuItem) event.getSource()).isSelected());
 		} 
 	}
 	
+	/**
+	 * Save a drawing that was opened lazily, and so may be read from path as
+	 * it is saved, to a new file that then takes the place of path.
+	 */
+	private void saveReplacing(Path path) throws IOException {
+		Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		SaveFileIndex.save(temporary, this.paintModel, StrokeSimplifier.forSave()); // a shape at a time, a SaveFileLayout would hold them all
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+		Files.move(SaveFileIndex.of(temporary), SaveFileIndex.of(path), StandardCopyOption.REPLACE_EXISTING);
+		this.saveFile = null;
+	}
+	
+	/**
+	 * Open file in the background. The panel switches to a new, empty model 
+	 * straight away and shapes appear as they are parsed. If the open is 
+	 * cancelled, the previous model is restored. A large binary file with an 
+	 * up to date index is opened lazily instead, see LazyPaintModel.
+	 * @param file
+	 */
+	private void open(File file) {
+		this.cancelOpen();
+		
+		// A large drawing with an index is read only as its shapes come into view
+		if (file.length() >= LAZY_BYTES) {
+			try {
+				LazyPaintFile lazy = LazyPaintFile.open(file.toPath());
+				if (lazy != null) {
+					this.setPaintModel(new LazyPaintModel(lazy));
+					this.saveFile = null;
+					this.statusLabel.setText("Opened " + file.getName() + ", " + lazy.size() + " shapes, read as they come into view");
+					return;
+				}
+			} catch (IOException e) {
+				System.out.println("Opening " + file.getName() + " in full, its index is unusable: " + e.getMessage());
+			}
+		}
+		
+		final PaintModel previousModel = this.paintModel;
+		final PaintModel paintModel = new PaintModel();
+		final PaintFileLoader loader = new PaintFileLoader(file, paintModel);
+		this.loader = loader;
+		this.paintModel = paintModel;
+		this.paintPanel.setPaintModel(paintModel);
+		if (this.journal != null) {
+			// The journal starts from a copy of the file, not a record per shape
+			this.journal.opening(paintModel);
+			loader.setJournal(this.journal);
+		}
+		loader.setOnSucceeded(event -> {
+			this.openFinished(loader);
+			if (loader.getValue()) {
+				this.statusLabel.setText("Opened " + file.getName());
+				this.saveFile = loader.getLayout();
+				if (this.journal != null) this.journal.opened(paintModel, file.toPath());
+			} else {
+				this.statusLabel.setText(loader.getErrorMessage());
+				System.out.println(loader.getErrorMessage());
+				if (this.journal != null && this.paintModel == paintModel) this.journal.setPaintModel(paintModel);
+			}
+		});
+		loader.setOnFailed(event -> {
+			this.openFinished(loader);
+			if (this.journal != null && this.paintModel == paintModel) this.journal.setPaintModel(paintModel);
+			this.statusLabel.setText("Open command unable to execute. Try again.");
+			System.out.println("Open command unable to execute. Try again." + "\n");
+		});
+		loader.setOnCancelled(event -> {
+			this.openFinished(loader);
+			this.setPaintModel(previousModel);
+			this.statusLabel.setText("Open cancelled");
+		});
+		
+		this.progressBar.progressProperty().bind(loader.progressProperty());
+		this.progressBar.setVisible(true);
+		this.cancelButton.setVisible(true);
+		this.statusLabel.setText("Opening " + file.getName());
+		
+		Thread thread = new Thread(loader, "Open " + file.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private void openFinished(PaintFileLoader loader) {
+		if (this.loader != loader) return; // superseded by a later open
+		this.loader = null;
+		this.progressBar.progressProperty().unbind();
+		this.progressBar.setVisible(false);
+		this.cancelButton.setVisible(false);
+	}
+	
+	/**
+	 * Stop the open in progress, if there is one.
+	 */
+	private void cancelOpen() {
+		if (this.loader != null) {
+			this.loader.cancel();
+		}
+	}
+	
 	/**
 	 * Save the given paintModel to the open file
 	 * @param writer